@@ -0,0 +1,227 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 临时图片的复用池
+ * <p>
+ * 蒙版、 分块、 抠图结果这些图片的大小来来回回就是那几种， 用完放回池里， 下次同样大小的直接拿去用，
+ * 不用每次都重新分配再等 GC。 按宽、 高和格式分组， 总字节数超过上限的时候先回收最早放回来的。
+ * 4.4 以上内存足够大的图片可以 reconfigure 成别的尺寸， 解码的时候也可以通过 inBitmap 复用。
+ * <p>
+ * 放回池里的图片调用方不能再使用。 线程安全。
+ */
+class BitmapPool {
+    /**
+     * 默认上限 24M， 不超过最大内存的 1/8
+     */
+    private static final long DEFAULT_MAX_BYTES = 24 * 1024 * 1024;
+
+    private static BitmapPool sDefault;
+
+    private final Map<Long, ArrayDeque<Bitmap>> mGroups;
+    /**
+     * 所有放回来的图片， 最早的在前面
+     */
+    private final LinkedList<Bitmap> mOrder;
+    private final Paint mCopyPaint;
+    private long mMaxBytes;
+    private long mBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mGroups = new HashMap<>();
+        mOrder = new LinkedList<>();
+        mCopyPaint = new Paint();
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * 进程内共享的实例
+     */
+    static synchronized BitmapPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new BitmapPool(Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 取一张可以修改的透明图片， 池里没有的时候新建
+     */
+    Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = obtain(width, height, config, true);
+        if (bitmap != null) {
+            // 之前可能解码过不透明的图片
+            bitmap.setHasAlpha(true);
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 复制一份可以修改的图片， 按预乘的像素直接覆盖， 和 {@link Bitmap#copy(Bitmap.Config, boolean)} 结果一样
+     */
+    Bitmap copy(Bitmap source) {
+        Bitmap bitmap = obtain(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888, true);
+        if (bitmap == null) {
+            return source.copy(Bitmap.Config.ARGB_8888, true);
+        }
+        bitmap.setHasAlpha(source.hasAlpha());
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawBitmap(source, 0, 0, mCopyPaint);
+        canvas.setBitmap(null);
+        return bitmap;
+    }
+
+    /**
+     * 给解码用的 inBitmap， 内容不会清空， 没有合适的返回 null
+     * 4.4 以下只能复用大小完全一样并且 inSampleSize 为 1 的， 由调用方保证
+     */
+    Bitmap getForDecode(int width, int height, Bitmap.Config config) {
+        return obtain(width, height, config, false);
+    }
+
+    /**
+     * 放回池里， 不能复用的 （不可修改或者太大） 直接回收
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        final long bytes = getAllocationByteCount(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bytes > mMaxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+        final long key = toKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> group = mGroups.get(key);
+        if (group == null) {
+            group = new ArrayDeque<>();
+            mGroups.put(key, group);
+        }
+        group.push(bitmap);
+        mOrder.addLast(bitmap);
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * 回收池里所有的图片
+     */
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    synchronized void trimToSize(long maxBytes) {
+        while (mBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            remove(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    synchronized long getByteCount() {
+        return mBytes;
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private synchronized Bitmap obtain(int width, int height, Bitmap.Config config, boolean reconfigure) {
+        ArrayDeque<Bitmap> group = mGroups.get(toKey(width, height, config));
+        Bitmap bitmap = group == null ? null : group.peek();
+        if (bitmap == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // 行按 4 字节对齐
+            bitmap = findLarger((long) ((width * getBytesPerPixel(config) + 3) & ~3) * height, config);
+        }
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+        mOrder.remove(bitmap);
+        remove(bitmap);
+        mHitCount++;
+        if (reconfigure && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 同样格式里内存足够的最小的一张
+     */
+    private Bitmap findLarger(long bytes, Bitmap.Config config) {
+        Bitmap best = null;
+        for (Bitmap bitmap : mOrder) {
+            if (bitmap.getConfig() != config) {
+                continue;
+            }
+            final long allocation = getAllocationByteCount(bitmap);
+            if (allocation >= bytes && (best == null || allocation < getAllocationByteCount(best))) {
+                best = bitmap;
+            }
+        }
+        return best;
+    }
+
+    private void remove(Bitmap bitmap) {
+        final long key = toKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> group = mGroups.get(key);
+        if (group != null) {
+            group.remove(bitmap);
+            if (group.isEmpty()) {
+                mGroups.remove(key);
+            }
+        }
+        mBytes -= getAllocationByteCount(bitmap);
+    }
+
+    private static long getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    private static long toKey(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 4) | config.ordinal();
+    }
+}
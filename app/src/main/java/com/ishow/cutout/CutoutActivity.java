@@ -42,7 +42,9 @@ public class CutoutActivity extends BaseActivity implements OnSelectPhotoListene
                 LoadingDialog.dismiss(mLoadingDialog);
             }
         });
-        mCutoutView.setPhoto("/storage/emulated/0/Android/data/com.ishow.demo/cache/5EC29A97-A8E4-4DAA-AFFC-B654F0B1436C.jpg");
+        if (!mCutoutView.resumeSession()) {
+            mCutoutView.setPhoto("/storage/emulated/0/Android/data/com.ishow.demo/cache/5EC29A97-A8E4-4DAA-AFFC-B654F0B1436C.jpg");
+        }
 
         mSelectPhotoUtils = new SelectPhotoUtils(this, SelectPhotoUtils.SelectMode.SINGLE);
         mSelectPhotoUtils.setOnSelectPhotoListener(this);
@@ -62,6 +64,10 @@ public class CutoutActivity extends BaseActivity implements OnSelectPhotoListene
         back.setOnClickListener(this);
         View eraser = findViewById(R.id.eraser);
         eraser.setOnClickListener(this);
+        View magnetic = findViewById(R.id.magnetic);
+        magnetic.setOnClickListener(this);
+        View wand = findViewById(R.id.wand);
+        wand.setOnClickListener(this);
     }
 
     @Override
@@ -87,6 +93,12 @@ public class CutoutActivity extends BaseActivity implements OnSelectPhotoListene
             case R.id.eraser:
                 mCutoutView.setMode(CutoutView.Mode.ERASER);
                 break;
+            case R.id.magnetic:
+                mCutoutView.setMode(CutoutView.Mode.MAGNETIC);
+                break;
+            case R.id.wand:
+                mCutoutView.setMode(CutoutView.Mode.WAND);
+                break;
         }
     }
 }
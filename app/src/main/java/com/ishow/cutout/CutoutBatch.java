@@ -0,0 +1,191 @@
+package com.ishow.cutout;
+
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 批量抠图
+ * <p>
+ * 固定数量的线程， 每个线程一次处理一张图片， 图片内部不再并行。
+ * 提交之前按图片大小预估内存， 正在处理和排队的图片加起来不超过上限， 超过的时候提交的线程等待，
+ * 所以任务可以是边读边生成的， 内存和任务总数无关。
+ * 不依赖 android， 可以在普通的 JVM 上运行。
+ */
+public class CutoutBatch {
+    private static final String TAG = "CutoutBatch";
+    /**
+     * 处理一张图片大约需要的每像素字节数： 像素 4， 抠图蒙版和羽化的临时数组各 1， 擦除蒙版 1， 再留一点余量
+     */
+    private static final int BYTES_PER_PIXEL = 8;
+    /**
+     * 内存按 KB 计数， 信号量的许可数是 int
+     */
+    private static final int PERMIT_SHIFT = 10;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mThreadCount;
+    private final Semaphore mMemory;
+    private final int mMemoryPermits;
+    /**
+     * 排队的任务数也有上限， 任务都很小的时候提交的线程不会一下子把所有任务都放进队列
+     */
+    private final Semaphore mSlots;
+    private final ThreadLocal<CutoutEngine> mEngines;
+    private volatile float mFeatherRadius;
+    private volatile Listener mListener;
+
+    /**
+     * @param threadCount 线程数
+     * @param maxBytes    同时处理的图片最多占用的内存， 单张超过上限的图片会独占全部额度
+     */
+    public CutoutBatch(int threadCount, long maxBytes) {
+        mThreadCount = Math.max(1, threadCount);
+        mMemoryPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes >> PERMIT_SHIFT));
+        mMemory = new Semaphore(mMemoryPermits, true);
+        mSlots = new Semaphore(mThreadCount * 2);
+        mFeatherRadius = CutoutEngine.DEFAULT_FEATHER_RADIUS;
+
+        final AtomicInteger index = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(mThreadCount, mThreadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TAG + "-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mEngines = new ThreadLocal<CutoutEngine>() {
+            @Override
+            protected CutoutEngine initialValue() {
+                return new CutoutEngine(new ParallelBands(1));
+            }
+        };
+    }
+
+    public void setFeatherRadius(float radius) {
+        mFeatherRadius = Math.max(0, radius);
+    }
+
+    /**
+     * 每张图片处理完的回调， 在工作线程调用
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 处理所有任务， 全部完成之后才返回， 同一时间只能有一个线程调用
+     *
+     * @return 失败的任务数
+     */
+    public int run(Iterator<? extends Task> tasks) throws InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            while (tasks.hasNext()) {
+                final Task task = tasks.next();
+                final int permits = getPermits(task);
+                mSlots.acquire();
+                try {
+                    mMemory.acquire(permits);
+                } catch (InterruptedException e) {
+                    mSlots.release();
+                    throw e;
+                }
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(task, failures);
+                        } finally {
+                            mMemory.release(permits);
+                            mSlots.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            // 所有额度都还回来了就是全部完成了
+            mMemory.acquireUninterruptibly(mMemoryPermits);
+            mMemory.release(mMemoryPermits);
+        }
+        return failures.get();
+    }
+
+    /**
+     * 不再使用的时候调用， 空闲的线程本来也会自己退出
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private int getPermits(Task task) {
+        final long bytes = (long) task.getWidth() * task.getHeight() * BYTES_PER_PIXEL;
+        return (int) Math.max(1, Math.min(mMemoryPermits, bytes >> PERMIT_SHIFT));
+    }
+
+    private void process(Task task, AtomicInteger failures) {
+        Throwable error = null;
+        try {
+            final int width = task.getWidth();
+            final int height = task.getHeight();
+            final int[] pixels = new int[width * height];
+            task.read(pixels);
+            CutoutEngine engine = mEngines.get();
+            engine.setFeatherRadius(mFeatherRadius);
+            engine.apply(pixels, width, height, task.getOperations());
+            task.write(pixels, width, height);
+        } catch (Exception e) {
+            error = e;
+        } catch (OutOfMemoryError e) {
+            error = e;
+        }
+        if (error != null) {
+            failures.incrementAndGet();
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onFinished(task, error);
+        }
+    }
+
+    /**
+     * 一张图片
+     */
+    public interface Task {
+        /**
+         * 只需要读取尺寸， 用来预估内存， 提交之前在调用 {@link CutoutBatch#run(Iterator)} 的线程调用
+         */
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * 读取非预乘的 ARGB 像素， 每行 width 个
+         */
+        void read(int[] pixels) throws Exception;
+
+        CutoutEngine.Operations getOperations();
+
+        /**
+         * 写出结果， pixels 在返回之后就不再有效
+         */
+        void write(int[] pixels, int width, int height) throws Exception;
+    }
+
+    public interface Listener {
+        /**
+         * @param error 成功的时候为 null
+         */
+        void onFinished(Task task, Throwable error);
+    }
+}
@@ -0,0 +1,217 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 不依赖界面的抠图
+ * <p>
+ * 输入图片坐标的操作 （闭合的抠图路径、 擦除的笔画、 擦除的矩形）， 直接在 int 数组的像素上合成结果，
+ * 和 {@link CutoutView} 以及导出用的是同样的扫描线填充、 羽化和合成内核， 不依赖 android，
+ * 可以在服务器或者普通的 JVM 上批量处理， 批量处理见 {@link CutoutBatch}。
+ * <p>
+ * 操作按顺序执行： 抠图只保留路径里面的部分 （DST_IN）， 擦除和擦除矩形擦掉覆盖的部分 （DST_OUT）。
+ * 连续的擦除先画到同一张蒙版上再合成一次。
+ * 一个实例同一时间只能在一个线程里使用。
+ */
+public class CutoutEngine {
+    /**
+     * 默认的羽化半径 （图片像素）
+     */
+    public static final float DEFAULT_FEATHER_RADIUS = 100;
+    /**
+     * 每次合成的行数
+     */
+    private static final int CHUNK_ROWS = 64;
+
+    private final ParallelBands mBands;
+    private final MaskFeather mFeather;
+    private final PolygonRasterizer mPolygonRasterizer;
+    private final StrokeRasterizer mStrokeRasterizer;
+    private float mFeatherRadius;
+
+    /**
+     * 单张图片内部按核数并行
+     */
+    public CutoutEngine() {
+        this(ParallelBands.getDefault());
+    }
+
+    /**
+     * @param bands 批量处理的时候每张图片已经在各自的线程里， 传单线程的
+     */
+    CutoutEngine(ParallelBands bands) {
+        mBands = bands;
+        mFeather = new MaskFeather(bands);
+        mPolygonRasterizer = new PolygonRasterizer();
+        mStrokeRasterizer = new StrokeRasterizer();
+        mFeatherRadius = DEFAULT_FEATHER_RADIUS;
+    }
+
+    /**
+     * 抠图边缘的羽化半径， 和 BlurMaskFilter 相同含义， 0 表示不羽化
+     */
+    public void setFeatherRadius(float radius) {
+        mFeatherRadius = Math.max(0, radius);
+    }
+
+    public float getFeatherRadius() {
+        return mFeatherRadius;
+    }
+
+    /**
+     * 原地处理一张图片
+     *
+     * @param pixels 非预乘的 ARGB， 每行 width 个
+     */
+    public void apply(int[] pixels, int width, int height, Operations operations) {
+        apply(pixels, width, height, operations.mLog, 1);
+    }
+
+    /**
+     * 按记录的笔画处理， 抠图轨迹 {@link StrokeLog#TOOL_TRACK} 会被忽略
+     *
+     * @param scale 笔画坐标到图片坐标的缩放
+     */
+    void apply(int[] pixels, int width, int height, StrokeLog log, float scale) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels is smaller than " + width + "x" + height);
+        }
+        final int count = log.getStrokeCount();
+        int stroke = 0;
+        while (stroke < count) {
+            final int tool = log.getTool(stroke);
+            if (tool == StrokeLog.TOOL_LASSO) {
+                applyLasso(pixels, width, height, log, stroke, scale);
+                stroke++;
+            } else if (tool == StrokeLog.TOOL_ERASER || tool == StrokeLog.TOOL_WAND) {
+                stroke = applyErasers(pixels, width, height, log, stroke, scale);
+            } else {
+                stroke++;
+            }
+        }
+    }
+
+    /**
+     * 填充、 羽化， 四周留出羽化的范围， 图片外面的轨迹也参与模糊
+     */
+    private void applyLasso(int[] pixels, int width, int height, StrokeLog log, int stroke, float scale) {
+        final float radius = mFeatherRadius * scale;
+        final int margin = MaskFeather.getExtent(radius);
+        final int stride = width + margin * 2;
+        final int maskHeight = height + margin * 2;
+        final byte[] mask = new byte[stride * maskHeight];
+        mPolygonRasterizer.setTransform(scale, scale, margin, margin);
+        mPolygonRasterizer.fill(log.getPoints(), log.getPointOffset(stroke), log.getPointCount(stroke),
+                mask, stride, maskHeight, stride);
+        mFeather.blur(mask, stride, maskHeight, stride, radius);
+        composite(pixels, width, height, mask, margin * stride + margin, stride, false);
+    }
+
+    /**
+     * 从 start 开始连续的擦除画到一张蒙版上， 一次合成
+     *
+     * @return 下一个不是擦除的笔画
+     */
+    private int applyErasers(int[] pixels, int width, int height, StrokeLog log, int start, float scale) {
+        final byte[] mask = new byte[width * height];
+        final float[] points = log.getPoints();
+        mStrokeRasterizer.setTransform(scale, scale, 0, 0);
+        int stroke = start;
+        for (; stroke < log.getStrokeCount(); stroke++) {
+            final int tool = log.getTool(stroke);
+            final int offset = log.getPointOffset(stroke);
+            final int pointCount = log.getPointCount(stroke);
+            if (tool == StrokeLog.TOOL_ERASER) {
+                mStrokeRasterizer.stroke(points, offset, pointCount, log.getWidth(stroke), mask, width, height, width);
+            } else if (tool == StrokeLog.TOOL_WAND) {
+                for (int i = 0; i + 1 < pointCount; i += 2) {
+                    fillRect(mask, width, height,
+                            points[offset + i * 2] * scale, points[offset + i * 2 + 1] * scale,
+                            points[offset + i * 2 + 2] * scale, points[offset + i * 2 + 3] * scale);
+                }
+            } else {
+                break;
+            }
+        }
+        composite(pixels, width, height, mask, 0, width, true);
+        return stroke;
+    }
+
+    /**
+     * 矩形按像素中心是否在里面填充， 没有缩放的时候和记录的像素完全一致
+     */
+    private static void fillRect(byte[] mask, int width, int height, float left, float top, float right, float bottom) {
+        final int x0 = Math.max(0, Math.round(left));
+        final int x1 = Math.min(width, Math.round(right));
+        final int y0 = Math.max(0, Math.round(top));
+        final int y1 = Math.min(height, Math.round(bottom));
+        for (int y = y0; y < y1; y++) {
+            final int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                mask[row + x] = (byte) 0xFF;
+            }
+        }
+    }
+
+    private void composite(final int[] pixels, final int width, final int height, final byte[] mask,
+                           final int maskOffset, final int maskStride, final boolean out) {
+        mBands.run(height, CHUNK_ROWS, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                PixelKernels.applyMask(pixels, start * width, width, mask, maskOffset + start * maskStride, maskStride,
+                        width, end - start, out);
+            }
+        });
+    }
+
+    /**
+     * 一张图片要做的操作， 坐标都是图片像素
+     */
+    public static final class Operations {
+        final StrokeLog mLog;
+
+        public Operations() {
+            mLog = new StrokeLog();
+        }
+
+        /**
+         * 闭合的抠图路径， 只保留里面的部分 （非零环绕）
+         *
+         * @param points x0, y0, x1, y1 ...， 至少三个点
+         */
+        public Operations lasso(float... points) {
+            return add(StrokeLog.TOOL_LASSO, 0, points);
+        }
+
+        /**
+         * 圆头的擦除笔画
+         *
+         * @param width  线宽
+         * @param points x0, y0, x1, y1 ...
+         */
+        public Operations erase(float width, float... points) {
+            return add(StrokeLog.TOOL_ERASER, width, points);
+        }
+
+        /**
+         * 擦掉一个矩形
+         */
+        public Operations eraseRect(float left, float top, float right, float bottom) {
+            return add(StrokeLog.TOOL_WAND, 0, new float[]{left, top, right, bottom});
+        }
+
+        public boolean isEmpty() {
+            return mLog.isEmpty();
+        }
+
+        private Operations add(int tool, float width, float[] points) {
+            if (points.length < 2 || points.length % 2 != 0) {
+                throw new IllegalArgumentException("points must be x, y pairs");
+            }
+            mLog.beginStroke(tool, width, 255);
+            for (int i = 0; i < points.length; i += 2) {
+                mLog.addPoint(points[i], points[i + 1]);
+            }
+            return this;
+        }
+    }
+}
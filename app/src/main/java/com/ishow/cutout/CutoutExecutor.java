@@ -0,0 +1,149 @@
+package com.ishow.cutout;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Created by yuhaiyang on 2017/10/12.
+ * 抠图的后台任务
+ * <p>
+ * 只有一个线程， 同一时间只有一个任务在跑。
+ * 新的任务提交后之前没执行完的任务都会被取消（只保留最新的），
+ * 任务需要在每个阶段之间检查 {@link Job#isCancelled()} 自己退出。
+ * 还没开始的任务只保留最新的一个， 连续提交多次的时候中间的任务直接被替换掉， 不会排队。
+ */
+class CutoutExecutor {
+    private static final String TAG = "CutoutExecutor";
+
+    /**
+     * shutdown 之后再提交的时候重新创建
+     */
+    private ExecutorService mService;
+    /**
+     * 最新提交的任务
+     */
+    private Job mCurrentJob;
+    /**
+     * 等待执行的任务， 最多一个
+     */
+    private Job mPendingJob;
+    /**
+     * 线程里是否已经有一个取任务的 Runnable 在排队
+     */
+    private boolean isDrainScheduled;
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Job job;
+            synchronized (CutoutExecutor.this) {
+                job = mPendingJob;
+                mPendingJob = null;
+                isDrainScheduled = false;
+            }
+            if (job != null) {
+                job.run();
+            }
+        }
+    };
+
+
+    /**
+     * 提交任务， 之前的任务会被取消
+     */
+    synchronized void submit(Job job) {
+        if (mCurrentJob != null) {
+            mCurrentJob.cancel();
+        }
+        mCurrentJob = job;
+        mPendingJob = job;
+        if (!isDrainScheduled) {
+            isDrainScheduled = true;
+            if (mService == null) {
+                mService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, TAG);
+                    }
+                });
+            }
+            mService.execute(mDrainRunnable);
+        }
+    }
+
+    /**
+     * 当前任务， 可能已经完成或者取消了
+     */
+    synchronized Job getCurrentJob() {
+        return mCurrentJob;
+    }
+
+    /**
+     * 取消当前任务
+     *
+     * @return 是否真的取消了一个还没有完成的任务
+     */
+    synchronized boolean cancel() {
+        Job job = mCurrentJob;
+        mCurrentJob = null;
+        mPendingJob = null;
+        return job != null && job.cancel();
+    }
+
+    /**
+     * 取消当前任务并让线程退出， 不再使用的时候调用
+     */
+    synchronized void shutdown() {
+        cancel();
+        if (mService != null) {
+            mService.shutdownNow();
+            mService = null;
+        }
+        isDrainScheduled = false;
+    }
+
+    abstract static class Job implements Runnable {
+        private volatile boolean isCancelled;
+        private volatile boolean isFinished;
+
+        @Override
+        public final void run() {
+            if (isCancelled) {
+                return;
+            }
+            doInBackground();
+        }
+
+        /**
+         * 在后台线程执行
+         */
+        protected abstract void doInBackground();
+
+        boolean isCancelled() {
+            return isCancelled;
+        }
+
+        boolean isFinished() {
+            return isFinished;
+        }
+
+        /**
+         * 任务的结果已经应用完成， 之后不能再取消
+         */
+        synchronized boolean finish() {
+            if (isCancelled) {
+                return false;
+            }
+            isFinished = true;
+            return true;
+        }
+
+        synchronized boolean cancel() {
+            if (isFinished || isCancelled) {
+                return false;
+            }
+            isCancelled = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.ishow.common.utils.image.ImageUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/14.
+ * 原图分辨率导出
+ * <p>
+ * 编辑的时候都是在适配视图大小的图片上进行的， 导出的时候把记录下来的抠图和擦除操作
+ * 映射到原图的坐标系， 然后用 {@link BitmapRegionDecoder} 一条一条地解码原图并重放这些操作，
+ * 再按行写成 PNG。 多条可以并行处理， 内存只和同时处理的条数有关。
+ */
+class CutoutExporter {
+    private static final String TAG = "CutoutExporter";
+    /**
+     * 每条最少的行数
+     */
+    private static final int MIN_STRIP_HEIGHT = 16;
+    /**
+     * 一条在处理时大约需要几份 ARGB 的内存 （解码结果、 结果条和 getPixels 的数组）
+     */
+    private static final int STRIP_COPIES = 3;
+    /**
+     * 羽化的蒙版每个像素需要的字节数 （ALPHA_8 和读出来的覆盖度）， 上下左右还要加上羽化的范围
+     */
+    private static final int MASK_BYTES = 2;
+    /**
+     * 擦除和魔棒每一笔都用， 只建一次
+     */
+    private static final PorterDuffXfermode MODE_OUT = new PorterDuffXfermode(PorterDuff.Mode.DST_OUT);
+    private static final PorterDuffXfermode MODE_IN = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+
+    /**
+     * 原图路径
+     */
+    private final String mPath;
+    /**
+     * 编辑时的图片大小
+     */
+    private final int mPhotoWidth;
+    private final int mPhotoHeight;
+    /**
+     * 按顺序执行的闭合路径和擦除 （编辑图片的坐标）
+     */
+    private final StrokeLog mStrokeLog;
+
+    private float mFeatherRadius;
+    private final MaskFeather mFeather;
+    private long mMaxBytes;
+    private int mThreadCount;
+
+    CutoutExporter(String path, int photoWidth, int photoHeight) {
+        mPath = path;
+        mPhotoWidth = photoWidth;
+        mPhotoHeight = photoHeight;
+        mStrokeLog = new StrokeLog();
+        mFeatherRadius = 100;
+        // 已经按条并行了， 羽化就在各自的线程里做
+        mFeather = new MaskFeather(new ParallelBands(1));
+        mMaxBytes = 64 * 1024 * 1024;
+        mThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 添加一条记录的笔画， 只复制闭合路径、 擦除和魔棒
+     */
+    void addStrokeLog(StrokeLog log) {
+        for (int i = 0; i < log.getStrokeCount(); i++) {
+            final int tool = log.getTool(i);
+            if (tool == StrokeLog.TOOL_LASSO || tool == StrokeLog.TOOL_ERASER || tool == StrokeLog.TOOL_WAND) {
+                mStrokeLog.beginStroke(tool, log.getWidth(i), log.getAlpha(i));
+                mStrokeLog.addPoints(log, i);
+            }
+        }
+    }
+
+    /**
+     * 抠图边缘羽化半径 （编辑图片的像素）
+     */
+    void setFeatherRadius(float radius) {
+        mFeatherRadius = radius;
+    }
+
+    /**
+     * 导出时最多使用的内存
+     */
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    void setThreadCount(int count) {
+        mThreadCount = Math.max(1, count);
+    }
+
+    /**
+     * 导出， 耗时操作不要在主线程调用
+     */
+    void export(File output) throws IOException {
+        final int degree = ImageUtils.getExifOrientation(mPath);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(mPath, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("can not decode " + mPath);
+        }
+
+        // 原始像素 -> 旋转之后的原图
+        Matrix rawToImage = new Matrix();
+        rawToImage.postRotate(degree);
+        RectF rotated = new RectF(0, 0, bounds.outWidth, bounds.outHeight);
+        rawToImage.mapRect(rotated);
+        rawToImage.postTranslate(-rotated.left, -rotated.top);
+        final int width = Math.round(rotated.width());
+        final int height = Math.round(rotated.height());
+        Matrix imageToRaw = new Matrix();
+        rawToImage.invert(imageToRaw);
+
+        // 编辑图片 -> 原图
+        final Matrix photoToImage = new Matrix();
+        photoToImage.setScale((float) width / mPhotoWidth, (float) height / mPhotoHeight);
+        final float imageScale = (float) width / mPhotoWidth;
+
+        final int threads = mThreadCount;
+        final long threadBytes = mMaxBytes / threads;
+        final int margin = mStrokeLog.indexOfTool(StrokeLog.TOOL_LASSO) < 0 ? 0 : MaskFeather.getExtent(mFeatherRadius * imageScale);
+        int stripHeight = getStripHeight(threadBytes, width, height, margin);
+        // 羽化的范围比一条还高的时候， 每一条都要把周围好几条的轨迹重新填充、 模糊一遍。
+        // 改成在编辑图片的大小上合成、 羽化一次， 每一条只按比例采样； 模糊之后的边缘很平滑， 放大看不出差别
+        MaskLayer cutoutMask = null;
+        if (margin * 2 > stripHeight) {
+            cutoutMask = buildCutoutMask();
+            stripHeight = getStripHeight(threadBytes, width, height, 0);
+        }
+
+        BlockingQueue<BitmapRegionDecoder> decoders = new ArrayBlockingQueue<>(threads);
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        FileOutputStream out = new FileOutputStream(output);
+        try {
+            for (int i = 0; i < threads; i++) {
+                decoders.add(BitmapRegionDecoder.newInstance(mPath, false));
+            }
+            PngStripWriter writer = new PngStripWriter(out, width, height);
+
+            // 同时最多只有 threads 条在内存中， 按顺序写出
+            List<Future<int[]>> pending = new ArrayList<>();
+            int next = 0;
+            int written = 0;
+            while (written < height) {
+                while (next < height && pending.size() < threads) {
+                    final int top = next;
+                    final int bottom = Math.min(height, top + stripHeight);
+                    pending.add(service.submit(new StripTask(decoders, imageToRaw, rawToImage, photoToImage,
+                            cutoutMask, imageScale, width, top, bottom)));
+                    next = bottom;
+                }
+
+                int[] pixels = pending.remove(0).get();
+                final int rows = Math.min(stripHeight, height - written);
+                writer.writeRows(pixels, rows);
+                written += rows;
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("export failed", e);
+        } finally {
+            service.shutdownNow();
+            if (cutoutMask != null) {
+                // 还在跑的条被中断之后才会退出， 等它们不再读蒙版
+                try {
+                    service.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                cutoutMask.recycle();
+            }
+            for (BitmapRegionDecoder decoder : decoders) {
+                decoder.recycle();
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "export: close failed", e);
+            }
+        }
+    }
+
+    /**
+     * 每个线程的内存放得下的行数： 几份 ARGB 的条， 加上四周带羽化边距的蒙版
+     */
+    private static int getStripHeight(long threadBytes, int width, int height, int margin) {
+        final long maskWidth = width + margin * 2L;
+        final long available = threadBytes - maskWidth * margin * 2 * MASK_BYTES;
+        final long rows = available / (width * 4L * STRIP_COPIES + maskWidth * MASK_BYTES);
+        return (int) Math.max(MIN_STRIP_HEIGHT, Math.min(height, rows));
+    }
+
+    /**
+     * 在编辑图片的大小上把所有闭合路径各自羽化， 再相乘合成一张蒙版
+     * DST_IN 只是乘上覆盖度， 先合成再一次用到图片上和按顺序一条一条用的结果一样
+     */
+    private MaskLayer buildCutoutMask() {
+        final int margin = MaskFeather.getExtent(mFeatherRadius);
+        MaskLayer result = new MaskLayer(mPhotoWidth, mPhotoHeight, margin);
+        result.getCanvas().drawColor(Color.BLACK);
+        MaskLayer mask = new MaskLayer(mPhotoWidth, mPhotoHeight, margin);
+        PolygonRasterizer rasterizer = new PolygonRasterizer();
+        for (int i = 0; i < mStrokeLog.getStrokeCount(); i++) {
+            if (mStrokeLog.getTool(i) != StrokeLog.TOOL_LASSO) {
+                continue;
+            }
+            mask.clear();
+            mask.fill(rasterizer, mStrokeLog, i, 1, 1, 0, 0);
+            mask.feather(mFeather, mFeatherRadius);
+            mask.applyIn(result.getCanvas(), 0, 0);
+        }
+        mask.recycle();
+        return result;
+    }
+
+    /**
+     * 处理一条
+     */
+    private class StripTask implements Callable<int[]> {
+        private final BlockingQueue<BitmapRegionDecoder> mDecoders;
+        private final Matrix mImageToRaw;
+        private final Matrix mRawToImage;
+        private final Matrix mPhotoToImage;
+        private final PolygonRasterizer mRasterizer;
+        /**
+         * 预先羽化好的闭合路径 （编辑图片的大小）， 为空的时候每一条自己羽化
+         */
+        private final MaskLayer mCutoutMask;
+        /**
+         * 自己羽化时用的蒙版， 这一条里的闭合路径共用
+         */
+        private MaskLayer mMask;
+        private final float mImageScale;
+        private final int mWidth;
+        private final int mTop;
+        private final int mBottom;
+
+        StripTask(BlockingQueue<BitmapRegionDecoder> decoders, Matrix imageToRaw, Matrix rawToImage,
+                  Matrix photoToImage, MaskLayer cutoutMask, float imageScale, int width, int top, int bottom) {
+            mDecoders = decoders;
+            mImageToRaw = imageToRaw;
+            mRawToImage = rawToImage;
+            mPhotoToImage = photoToImage;
+            mCutoutMask = cutoutMask;
+            mRasterizer = new PolygonRasterizer();
+            mImageScale = imageScale;
+            mWidth = width;
+            mTop = top;
+            mBottom = bottom;
+        }
+
+        @Override
+        public int[] call() throws Exception {
+            final int height = mBottom - mTop;
+            Bitmap strip = BitmapPool.getDefault().get(mWidth, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(strip);
+            decodeInto(canvas);
+
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            Path path = new Path();
+            if (mCutoutMask != null) {
+                applyCutoutMask(canvas);
+            }
+            for (int i = 0; i < mStrokeLog.getStrokeCount(); i++) {
+                final int tool = mStrokeLog.getTool(i);
+                if (tool == StrokeLog.TOOL_LASSO) {
+                    if (mCutoutMask == null) {
+                        applyCutout(canvas, i);
+                    }
+                } else if (tool == StrokeLog.TOOL_WAND) {
+                    path.reset();
+                    CutoutRecord.toRects(mStrokeLog, i, path);
+                    applyWand(canvas, path, paint);
+                } else {
+                    path.reset();
+                    CutoutRecord.toPath(mStrokeLog, i, path, 0, 0);
+                    applyEraser(canvas, path, mStrokeLog.getWidth(i), paint);
+                }
+            }
+
+            if (mMask != null) {
+                mMask.recycle();
+                mMask = null;
+            }
+
+            int[] pixels = new int[mWidth * height];
+            strip.getPixels(pixels, 0, mWidth, 0, 0, mWidth, height);
+            BitmapPool.getDefault().put(strip);
+            return pixels;
+        }
+
+        private void decodeInto(Canvas canvas) throws InterruptedException, IOException {
+            RectF area = new RectF(0, mTop, mWidth, mBottom);
+            mImageToRaw.mapRect(area);
+            Rect raw = new Rect();
+            area.roundOut(raw);
+
+            BitmapRegionDecoder decoder = mDecoders.take();
+            Bitmap region;
+            try {
+                raw.intersect(0, 0, decoder.getWidth(), decoder.getHeight());
+                region = decoder.decodeRegion(raw, null);
+            } finally {
+                mDecoders.put(decoder);
+            }
+            if (region == null) {
+                // 留成透明的一条会被当成抠掉了， 宁可整个导出失败
+                throw new IOException("can not decode region " + raw);
+            }
+
+            Matrix matrix = new Matrix();
+            matrix.postTranslate(raw.left, raw.top);
+            matrix.postConcat(mRawToImage);
+            matrix.postTranslate(0, -mTop);
+            canvas.drawBitmap(region, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            BitmapPool.getDefault().put(region);
+        }
+
+        private void applyCutout(Canvas canvas, int stroke) {
+            // 羽化半径不受画布矩阵影响， 需要自己换算到原图
+            final float radius = mFeatherRadius * mImageScale;
+            // 上下留出羽化的范围， 这一条之外的轨迹也会影响到这一条
+            if (mMask == null) {
+                mMask = new MaskLayer(mWidth, mBottom - mTop, MaskFeather.getExtent(radius));
+            } else {
+                mMask.clear();
+            }
+            float[] values = new float[9];
+            mPhotoToImage.getValues(values);
+            mMask.fill(mRasterizer, mStrokeLog, stroke, values[Matrix.MSCALE_X], values[Matrix.MSCALE_Y], 0, -mTop);
+            mMask.feather(mFeather, radius);
+            mMask.applyIn(canvas, 0, 0);
+        }
+
+        /**
+         * 把预先羽化好的蒙版放大到原图， 只保留覆盖的部分
+         */
+        private void applyCutoutMask(Canvas canvas) {
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            paint.setXfermode(MODE_IN);
+            canvas.save();
+            canvas.translate(0, -mTop);
+            canvas.concat(mPhotoToImage);
+            mCutoutMask.draw(canvas, 0, 0, paint);
+            canvas.restore();
+        }
+
+        private void applyWand(Canvas canvas, Path path, Paint paint) {
+            paint.setXfermode(MODE_OUT);
+            canvas.save();
+            canvas.translate(0, -mTop);
+            canvas.concat(mPhotoToImage);
+            canvas.drawPath(path, paint);
+            canvas.restore();
+            paint.setXfermode(null);
+        }
+
+        private void applyEraser(Canvas canvas, Path path, float width, Paint paint) {
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(width);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+            paint.setStrokeJoin(Paint.Join.ROUND);
+            paint.setXfermode(MODE_OUT);
+
+            canvas.save();
+            canvas.translate(0, -mTop);
+            canvas.concat(mPhotoToImage);
+            canvas.drawPath(path, paint);
+            canvas.restore();
+
+            paint.setXfermode(null);
+            paint.setStyle(Paint.Style.FILL);
+        }
+    }
+}
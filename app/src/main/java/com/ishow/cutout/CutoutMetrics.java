@@ -0,0 +1,314 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 性能统计
+ * <p>
+ * 每个阶段一个直方图， 按微秒分桶： 每个 2 的幂次再平均分成 8 份， 误差在 12.5% 以内，
+ * 记录一次只是几次整数运算加一次自增， 不分配内存。
+ * 通过 {@link CutoutView#setMetricsEnabled(boolean)} 开启， 关闭的时候没有任何开销。
+ */
+public class CutoutMetrics {
+    /**
+     * 解码原图
+     */
+    public static final int STAGE_DECODE = 0;
+    /**
+     * 把原图缩放到视图大小
+     */
+    public static final int STAGE_SCALE = 1;
+    /**
+     * 擦除， 每个触摸事件一次
+     */
+    public static final int STAGE_ERASER = 2;
+    /**
+     * 抠图提交 （后台生成结果）
+     */
+    public static final int STAGE_COMMIT = 3;
+    /**
+     * 保存 PNG
+     */
+    public static final int STAGE_SAVE = 4;
+    /**
+     * 回退
+     */
+    public static final int STAGE_UNDO = 5;
+
+    static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {"decode", "scale", "eraser", "commit", "save", "undo"};
+
+    private final Histogram[] mHistograms;
+    private OnStageListener mListener;
+
+    CutoutMetrics() {
+        mHistograms = new Histogram[STAGE_COUNT];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * 每个阶段结束的时候回调， 可能在后台线程
+     */
+    public void setOnStageListener(OnStageListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 记录一次耗时
+     */
+    void record(int stage, long durationNanos) {
+        mHistograms[stage].record(durationNanos / 1000);
+        OnStageListener listener = mListener;
+        if (listener != null) {
+            listener.onStage(stage, durationNanos);
+        }
+    }
+
+    /**
+     * 当前统计结果的拷贝
+     *
+     * @param bitmapBytes  图片占用的内存
+     * @param historyBytes 回退记录占用的内存
+     * @param pool         临时图片的复用池
+     */
+    Snapshot snapshot(long bitmapBytes, long historyBytes, BitmapPool pool) {
+        StageSnapshot[] stages = new StageSnapshot[STAGE_COUNT];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stages[i] = mHistograms[i].snapshot(i);
+        }
+        return new Snapshot(stages, bitmapBytes, historyBytes,
+                pool.getByteCount(), pool.getHitCount(), pool.getMissCount());
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    public interface OnStageListener {
+        /**
+         * @param stage         {@link #STAGE_DECODE} 等
+         * @param durationNanos 耗时 （纳秒）
+         */
+        void onStage(int stage, long durationNanos);
+    }
+
+    /**
+     * 某一时刻的统计结果， 不会再变化
+     */
+    public static class Snapshot {
+        private final StageSnapshot[] mStages;
+        private final long mBitmapBytes;
+        private final long mHistoryBytes;
+        private final long mPoolBytes;
+        private final long mPoolHits;
+        private final long mPoolMisses;
+
+        Snapshot(StageSnapshot[] stages, long bitmapBytes, long historyBytes,
+                 long poolBytes, long poolHits, long poolMisses) {
+            mStages = stages;
+            mBitmapBytes = bitmapBytes;
+            mHistoryBytes = historyBytes;
+            mPoolBytes = poolBytes;
+            mPoolHits = poolHits;
+            mPoolMisses = poolMisses;
+        }
+
+        public StageSnapshot getStage(int stage) {
+            return mStages[stage];
+        }
+
+        /**
+         * 显示的图片、 蒙版、 放大镜和原图分块占用的内存
+         */
+        public long getBitmapBytes() {
+            return mBitmapBytes;
+        }
+
+        /**
+         * 回退记录和记录图片缓存占用的内存
+         */
+        public long getHistoryBytes() {
+            return mHistoryBytes;
+        }
+
+        /**
+         * 复用池里空闲的图片占用的内存
+         */
+        public long getPoolBytes() {
+            return mPoolBytes;
+        }
+
+        /**
+         * 从复用池里拿到图片的次数 （进程启动以来）
+         */
+        public long getPoolHits() {
+            return mPoolHits;
+        }
+
+        /**
+         * 复用池里没有合适的图片、 需要新分配的次数
+         */
+        public long getPoolMisses() {
+            return mPoolMisses;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (StageSnapshot stage : mStages) {
+                builder.append(stage).append('\n');
+            }
+            builder.append("bitmap=").append(mBitmapBytes / 1024).append("KB")
+                    .append(" history=").append(mHistoryBytes / 1024).append("KB")
+                    .append(" pool=").append(mPoolBytes / 1024).append("KB")
+                    .append(" hit=").append(mPoolHits)
+                    .append(" miss=").append(mPoolMisses);
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 一个阶段的统计结果， 时间单位都是微秒
+     */
+    public static class StageSnapshot {
+        private final int mStage;
+        private final long mCount;
+        private final long mP50;
+        private final long mP95;
+        private final long mP99;
+        private final long mMax;
+
+        StageSnapshot(int stage, long count, long p50, long p95, long p99, long max) {
+            mStage = stage;
+            mCount = count;
+            mP50 = p50;
+            mP95 = p95;
+            mP99 = p99;
+            mMax = max;
+        }
+
+        public int getStage() {
+            return mStage;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getP50() {
+            return mP50;
+        }
+
+        public long getP95() {
+            return mP95;
+        }
+
+        public long getP99() {
+            return mP99;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return getStageName(mStage) + ": count=" + mCount
+                    + " p50=" + mP50 + "us p95=" + mP95 + "us p99=" + mP99 + "us max=" + mMax + "us";
+        }
+    }
+
+    /**
+     * 对数分桶的直方图
+     */
+    static class Histogram {
+        /**
+         * 每个 2 的幂次分成 2^SUB_BITS 个桶
+         */
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        /**
+         * 最大 2^40 微秒， 足够了
+         */
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+        private final long[] mCounts;
+        private long mTotal;
+        private long mMax;
+
+        Histogram() {
+            mCounts = new long[BUCKET_COUNT];
+        }
+
+        synchronized void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mCounts[indexOf(value)]++;
+            mTotal++;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        synchronized void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mCounts[i] = 0;
+            }
+            mTotal = 0;
+            mMax = 0;
+        }
+
+        synchronized StageSnapshot snapshot(int stage) {
+            return new StageSnapshot(stage, mTotal, percentile(0.5), percentile(0.95), percentile(0.99), mMax);
+        }
+
+        /**
+         * 返回所在桶的上界， 不会超过最大值
+         */
+        private long percentile(double percent) {
+            if (mTotal == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(mTotal * percent);
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                count += mCounts[i];
+                if (count >= target) {
+                    return Math.min(mMax, upperBoundOf(i));
+                }
+            }
+            return mMax;
+        }
+
+        static int indexOf(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+            final int sub = (int) (value >> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return Math.min(BUCKET_COUNT - 1, (exponent - SUB_BITS + 1) * SUB_COUNT + sub);
+        }
+
+        static long upperBoundOf(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            final int exponent = index / SUB_COUNT + SUB_BITS - 1;
+            final int sub = index % SUB_COUNT;
+            return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
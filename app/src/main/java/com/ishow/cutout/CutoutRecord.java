@@ -1,11 +1,7 @@
 package com.ishow.cutout;
 
-import android.graphics.Matrix;
 import android.graphics.Path;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Created by yuhaiyang on 2017/9/28.
  * 历史记录
@@ -18,23 +14,13 @@ public class CutoutRecord {
      */
     private String imagePath;
     /**
-     * 擦图
-     */
-    private List<Path> eraserPathList;
-    private List<Matrix> eraserMatrixList;
-
-
-    /**
-     * 抠图的路径
-     */
-    private List<Path> cutoutPathList;
-    private List<Matrix> cutoutMatrixList;
-    /**
-     * 抠图的轨迹
+     * 笔画记录 （图片坐标）
+     * 顺序为： 生成这条记录的闭合路径 -> 擦除 -> 还没有闭合的抠图轨迹
      */
-    private List<Float> cutoutTrackList;
+    private StrokeLog strokeLog;
 
     public CutoutRecord() {
+        strokeLog = new StrokeLog();
     }
 
     public String getImagePath() {
@@ -45,121 +31,87 @@ public class CutoutRecord {
         this.imagePath = imagePath;
     }
 
-
-    public void addEraserMatrix(Matrix matrix) {
-        if (matrix == null) {
-            return;
-        }
-        if (eraserMatrixList == null) {
-            eraserMatrixList = new ArrayList<>();
-        }
-        eraserMatrixList.add(matrix);
-    }
-
-    public void addEraserPath(Path path) {
-        if (path == null) {
-            return;
-        }
-        if (eraserPathList == null) {
-            eraserPathList = new ArrayList<>();
-        }
-        eraserPathList.add(path);
-    }
-
-
-    public void addCutoutMatrix(Matrix matrix) {
-        if (matrix == null) {
-            return;
-        }
-        if (cutoutMatrixList == null) {
-            cutoutMatrixList = new ArrayList<>();
-        }
-        cutoutMatrixList.add(matrix);
-    }
-
-    public void addCutoutPath(Path path) {
-        if (path == null) {
-            return;
-        }
-        if (cutoutPathList == null) {
-            cutoutPathList = new ArrayList<>();
-        }
-        cutoutPathList.add(path);
+    StrokeLog getStrokeLog() {
+        return strokeLog;
     }
 
-    public List<Matrix> getCutoutMatrixList() {
-        if (cutoutMatrixList == null) {
-            cutoutMatrixList = new ArrayList<>();
-        }
-        return cutoutMatrixList;
+    /**
+     * 最后一笔是否是抠图的轨迹
+     */
+    public boolean hasCutoutTrack() {
+        return strokeLog.getLastTool() == StrokeLog.TOOL_TRACK;
     }
 
-    public List<Path> getCutoutPathList() {
-        if (cutoutPathList == null) {
-            cutoutPathList = new ArrayList<>();
-        }
-        return cutoutPathList;
+    /**
+     * 最后一笔是否是擦除 （包括魔棒）
+     */
+    public boolean hasEraser() {
+        final int tool = strokeLog.getLastTool();
+        return tool == StrokeLog.TOOL_ERASER || tool == StrokeLog.TOOL_WAND;
     }
 
-    public void addCutoutTrack(float length) {
-        if (cutoutTrackList == null) {
-            cutoutTrackList = new ArrayList<>();
-        }
-        cutoutTrackList.add(length);
+    /**
+     * 移除最后一笔
+     */
+    public void removeLastStroke() {
+        strokeLog.truncate(strokeLog.getStrokeCount() - 1);
     }
 
-
-    public List<Path> getEraserPathList() {
-        if (eraserPathList == null) {
-            eraserPathList = new ArrayList<>();
+    /**
+     * 清除抠图的轨迹， 轨迹总是在最后面
+     */
+    public void clearCutoutTrack() {
+        final int index = strokeLog.indexOfTool(StrokeLog.TOOL_TRACK);
+        if (index >= 0) {
+            strokeLog.truncate(index);
         }
-        return eraserPathList;
     }
 
-    public List<Matrix> getEraserMatrixList() {
-        if (eraserMatrixList == null) {
-            eraserMatrixList = new ArrayList<>();
-        }
-        return eraserMatrixList;
+    /**
+     * 是否有 记录
+     */
+    public boolean hasRecord() {
+        return strokeLog.countOfTool(StrokeLog.TOOL_TRACK) > 0 || hasErasure();
     }
 
-    public List<Float> getCutoutTrackList() {
-        if (cutoutTrackList == null) {
-            cutoutTrackList = new ArrayList<>();
-        }
-        return cutoutTrackList;
+    /**
+     * 是否有擦除或者魔棒
+     */
+    boolean hasErasure() {
+        return strokeLog.countOfTool(StrokeLog.TOOL_ERASER) > 0 || strokeLog.countOfTool(StrokeLog.TOOL_WAND) > 0;
     }
 
-    public void clearPointList() {
-        if (cutoutTrackList == null) {
-            return;
+    /**
+     * 把一笔转换成 Path
+     *
+     * @param dx 每个点的 x 偏移
+     * @param dy 每个点的 y 偏移
+     */
+    static void toPath(StrokeLog log, int stroke, Path path, float dx, float dy) {
+        final float[] points = log.getPoints();
+        final int offset = log.getPointOffset(stroke);
+        final int count = log.getPointCount(stroke);
+        for (int i = 0; i < count; i++) {
+            final float x = points[offset + i * 2] + dx;
+            final float y = points[offset + i * 2 + 1] + dy;
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
         }
-        cutoutTrackList.clear();
-    }
-
-    public void clearEraserInfo() {
-        clearEraserMatrixList();
-        clearEraserPathList();
-    }
-
-    public void clearEraserMatrixList() {
-        getEraserMatrixList().clear();
-    }
-
-    public void clearEraserPathList() {
-        getEraserPathList().clear();
-    }
-
-    public void clearCutout() {
-        getCutoutTrackList().clear();
-        getCutoutMatrixList().clear();
-        getCutoutPathList().clear();
     }
 
     /**
-     * 是否有 记录
+     * 把魔棒的一笔转换成 Path， 所有矩形在同一个 Path 里， 抗锯齿的时候相邻的矩形之间不会有缝
      */
-    public boolean hasRecord() {
-        return !getEraserPathList().isEmpty() || !getCutoutTrackList().isEmpty();
+    static void toRects(StrokeLog log, int stroke, Path path) {
+        final float[] points = log.getPoints();
+        final int offset = log.getPointOffset(stroke);
+        final int count = log.getPointCount(stroke);
+        for (int i = 0; i + 1 < count; i += 2) {
+            final int index = offset + i * 2;
+            path.addRect(points[index], points[index + 1], points[index + 2], points[index + 3], Path.Direction.CW);
+        }
     }
 }
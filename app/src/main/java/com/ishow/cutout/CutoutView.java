@@ -6,21 +6,23 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapShader;
-import android.graphics.BlurMaskFilter;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PathMeasure;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -28,15 +30,18 @@ import android.view.ViewConfiguration;
 import android.widget.Toast;
 
 import com.ishow.common.utils.StringUtils;
-import com.ishow.common.utils.image.ImageUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
 
 /**
@@ -69,12 +74,44 @@ public class CutoutView extends View {
      * 缩放的最小倍数
      */
     private static final float MIN_ZOOM_SCALE = 0.3F;
+    /**
+     * 会话日志的文件名
+     */
+    private static final String SESSION_FILE_NAME = "cutout.session";
+    /**
+     * 轨迹简化允许的偏差 （dp）
+     */
+    private static final float SIMPLIFY_TOLERANCE = 0.75F;
+    /**
+     * 默认的抠图边缘羽化半径
+     */
+    private static final float DEFAULT_FEATHER_RADIUS = 100;
+    /**
+     * 磁性套索的搜索窗口在屏幕上的半径 （dp）
+     */
+    private static final float MAGNETIC_REACH = 120;
+    /**
+     * 原图分块缓存的上限
+     */
+    private static final long TILE_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    /**
+     * 抠图提交的各个阶段开始时的进度， 按 {@link Stage} 取， 羽化最耗时
+     */
+    private static final int[] STAGE_PROGRESS = {0, 10, 70, 90};
+    /**
+     * 所有图片默认最多占用最大内存的一半
+     */
+    private static final int DEFAULT_MEMORY_DIVISOR = 2;
 
     /**
      * 动作路径
      */
     private Path mCurrentPath;
     private Path mRealPath;
+    /**
+     * 磁性套索还没有固定下来的吸附路径 （视图坐标）
+     */
+    private Path mWirePath;
     /**
      * 用来计算动作路径
      */
@@ -82,19 +119,29 @@ public class CutoutView extends View {
 
     private Paint mPhotoPaint;
     private Paint mActionPaint;
+    private Paint mTrackPaint;
     private Paint mEnlargePaint;
     private Paint mTransparentPaint;
 
-    private PorterDuffXfermode mCutoutPorterMode;
-    private PorterDuffXfermode mEnlargePorterMode;
-    private PorterDuffXfermode mEraserPorterMode;
     private Bitmap mPhotoBitmap;
-    private Bitmap mCutoutBitmap;
-    private Bitmap mEnlargeBgBitmap;
+    /**
+     * 抠图轨迹的蒙版
+     */
+    private MaskLayer mCutoutMask;
+    /**
+     * 放大镜的缓存， 只画放大镜范围内的内容
+     */
+    private Bitmap mEnlargeBitmap;
+    private Canvas mEnlargeCanvas;
+    private float[] mEnlargePoint;
 
     private boolean isActionTrackVisible;
     private boolean isEnlargeVisible;
     private boolean isCutoutNewPath;
+    /**
+     * 恢复会话之后， 等图片信息计算完再重放当前记录的笔画
+     */
+    private boolean isReplayPending;
     /**
      * 是否手势操作过
      */
@@ -104,6 +151,8 @@ public class CutoutView extends View {
      * 模式
      * 抠图模式 {@link Mode#CUT_OUT}
      * 擦图模式 {@link Mode#ERASER}
+     * 磁性套索 {@link Mode#MAGNETIC}
+     * 魔棒 {@link Mode#WAND}
      */
     private int mMode;
 
@@ -138,12 +187,117 @@ public class CutoutView extends View {
 
 
     private List<CutoutRecord> mCutoutRecordList;
+    private EraserCompositor mEraserCompositor;
+    /**
+     * 回退记录
+     */
+    private TileHistory mHistory;
+    /**
+     * 解码原图时最多占用的内存
+     */
+    private long mDecodeMaxBytes;
+    /**
+     * 抠图的后台任务
+     */
+    private CutoutExecutor mExecutor;
+    /**
+     * 记录图片的存储
+     */
+    private RecordStore mRecordStore;
+    /**
+     * 会话日志， 进程被杀之后用来恢复
+     */
+    private SessionJournal mJournal;
+    /**
+     * 会话日志开头写的图片位置和大小， 没有变化的时候继续追加， 不用重写日志
+     */
+    private final Rect mJournalPhotoRect = new Rect();
+    /**
+     * 性能统计， 没有开启的时候为 null
+     */
+    private volatile CutoutMetrics mMetrics;
+    /**
+     * 抠图边缘羽化
+     */
+    private MaskFeather mFeather;
+    /**
+     * 多核的蒙版合成
+     */
+    private MaskCompositor mCompositor;
+    private float mFeatherRadius;
+    /**
+     * 记录到路径和笔画之前先简化轨迹 （视图坐标）
+     */
+    private StrokeSimplifier mSimplifier;
+    private float[] mSimplifiedPoint;
+    /**
+     * 磁性套索
+     */
+    private MagneticLasso mMagneticLasso;
+    private float mMagneticReach;
+    private float[] mWirePoint;
+    /**
+     * 魔棒， 只在 mWandExecutor 的线程里填充
+     */
+    private FloodFill mFloodFill;
+    /**
+     * 魔棒的后台任务， 和抠图分开， 不会互相取消
+     */
+    private CutoutExecutor mWandExecutor;
+    /**
+     * 填充还没完成时又点击的位置 （图片坐标）， 等前一次应用完按顺序填充
+     */
+    private LinkedList<Point> mWandTaps;
+    /**
+     * 魔棒复用的像素和蒙版， 同一时间只有一个任务在用
+     */
+    private int[] mWandPixels;
+    private byte[] mWandMask;
+    private int mWandWidth;
+    /**
+     * 魔棒填充区域的外接矩形， 只合成和记录这一块
+     */
+    private final Rect mWandBounds = new Rect();
+    /**
+     * 放大之后从原图解码的分块
+     */
+    private TilePyramid mTiles;
+    /**
+     * 统计所有图片占用的内存， 内存紧张的时候释放缓存
+     */
+    private MemoryGovernor mGovernor;
     private CutoutRecord mCurrentRecord;
     private ValueAnimator mZoomAnimator;
 
     private Matrix mMatrix;
     private Matrix mExchangedMatrix;
+    /**
+     * mMatrix 的逆矩阵， 只在 mMatrix 变化之后重新计算
+     */
+    private Matrix mInverseMatrix;
+    private boolean isInverseDirty;
+    private float[] mMatrixValues;
+    /**
+     * 坐标换算用的临时点， 避免触摸过程中分配内存
+     */
+    private float[] mRealPoint;
+    private float[] mNowPoint;
+    /**
+     * 动画参数， 按数量复用
+     */
+    private PropertyValuesHolder[][] mAnimatorValues;
     private RectF mPhotoRectF;
+    /**
+     * 触摸过程中只刷新变化的区域， 每帧最多刷新一次
+     */
+    private FrameInvalidator mInvalidator;
+    private RectF mDirtyRect;
+    private RectF mWireBounds;
+    private float[] mLastTouchPoint;
+    /**
+     * 上一次画放大镜的位置
+     */
+    private int mEnlargeLeft;
 
     public CutoutView(Context context) {
         super(context);
@@ -165,11 +319,44 @@ public class CutoutView extends View {
         mMinDistance = ViewConfiguration.get(context).getScaledTouchSlop();
         mMatrix = new Matrix();
         mExchangedMatrix = new Matrix();
+        mInverseMatrix = new Matrix();
+        mMatrixValues = new float[9];
+        mRealPoint = new float[2];
+        mNowPoint = new float[2];
+        mAnimatorValues = new PropertyValuesHolder[][]{
+                new PropertyValuesHolder[1],
+                new PropertyValuesHolder[2],
+                new PropertyValuesHolder[3]};
         mPhotoRectF = new RectF();
 
         mMode = Mode.CUT_OUT;
 
         mCutoutRecordList = new ArrayList<>();
+        mHistory = new TileHistory();
+        mDecodeMaxBytes = Runtime.getRuntime().maxMemory() / 8;
+        mExecutor = new CutoutExecutor();
+        mRecordStore = new RecordStore(context);
+        mJournal = new SessionJournal(new File(context.getCacheDir(), SESSION_FILE_NAME));
+        mSimplifier = new StrokeSimplifier(SIMPLIFY_TOLERANCE * context.getResources().getDisplayMetrics().density);
+        mEraserCompositor = new EraserCompositor();
+        mFeather = new MaskFeather(ParallelBands.getDefault());
+        mCompositor = new MaskCompositor(ParallelBands.getDefault());
+        mMagneticLasso = new MagneticLasso(ParallelBands.getDefault());
+        mFloodFill = new FloodFill();
+        mWandExecutor = new CutoutExecutor();
+        mWandTaps = new LinkedList<>();
+        final long tileBytes = Math.min(TILE_CACHE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        mTiles = new TilePyramid((int) tileBytes, new Runnable() {
+            @Override
+            public void run() {
+                mInvalidator.invalidateAll();
+            }
+        });
+        mGovernor = new MemoryGovernor(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_DIVISOR);
+        registerMemoryConsumers();
+        mMagneticReach = MAGNETIC_REACH * context.getResources().getDisplayMetrics().density;
+        mFeatherRadius = DEFAULT_FEATHER_RADIUS;
+        mEraserCompositor.setHistory(mHistory);
         mDownPoint = new float[2];
         mMovePoint = new float[2];
         mUpPoint = new float[2];
@@ -178,6 +365,10 @@ public class CutoutView extends View {
         mLastPointTwo = new float[2];
         mStartCutoutPoint = new float[2];
         mLastCutoutPoint = new float[2];
+        mEnlargePoint = new float[2];
+        mSimplifiedPoint = new float[2];
+        mWirePoint = new float[2];
+        mEnlargeCanvas = new Canvas();
 
         mPhotoPaint = new Paint();
         mPhotoPaint.setDither(true);
@@ -199,6 +390,11 @@ public class CutoutView extends View {
 
         mCurrentPath = new Path();
         mRealPath = new Path();
+        mWirePath = new Path();
+        mWireBounds = new RectF();
+        mDirtyRect = new RectF();
+        mLastTouchPoint = new float[2];
+        mInvalidator = new FrameInvalidator(this);
 
 
         mActionPaint = new Paint();
@@ -210,6 +406,11 @@ public class CutoutView extends View {
         mActionPaint.setStrokeCap(Paint.Cap.ROUND);
         mActionPaint.setStrokeJoin(Paint.Join.ROUND);
 
+        mTrackPaint = new Paint();
+        mTrackPaint.setDither(true);
+        mTrackPaint.setAntiAlias(true);
+        mTrackPaint.setColor(Color.RED);
+
         mEnlargePaint = new Paint();
         mEnlargePaint.setDither(true);
         mEnlargePaint.setAntiAlias(true);
@@ -220,9 +421,6 @@ public class CutoutView extends View {
         mEnlargePaint.setStrokeJoin(Paint.Join.ROUND);
 
         mPathMeasure = new PathMeasure(mCurrentPath, false);
-        mCutoutPorterMode = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
-        mEnlargePorterMode = new PorterDuffXfermode(PorterDuff.Mode.SRC_IN);
-        mEraserPorterMode = new PorterDuffXfermode(PorterDuff.Mode.DST_OUT);
     }
 
 
@@ -236,6 +434,9 @@ public class CutoutView extends View {
                 isMoved = false;
                 mDownPoint[0] = event.getX();
                 mDownPoint[1] = event.getY();
+                mLastTouchPoint[0] = mDownPoint[0];
+                mLastTouchPoint[1] = mDownPoint[1];
+                invalidateEnlarge();
                 break;
             case MotionEvent.ACTION_POINTER_DOWN:
                 mTouchPoint += 1;
@@ -247,6 +448,7 @@ public class CutoutView extends View {
                 mLastPointTwo[0] = event.getX(1);
                 mLastPointTwo[1] = event.getY(1);
                 mLastTwoPointDistance = getTouchPointDistance(mLastPointOne, mLastPointTwo);
+                invalidateEnlarge();
                 break;
             case MotionEvent.ACTION_MOVE:
                 mMovePoint[0] = event.getX();
@@ -262,23 +464,29 @@ public class CutoutView extends View {
 
                 if (mTouchPoint >= 2) {
                     onGestureMove(event);
+                    mInvalidator.invalidateAll();
                 } else if (!isGestured) { // 手势操作后不能进行其他操作
                     if (!isMoved) {
                         if (mMode == Mode.CUT_OUT) {
                             onCutoutDown(event);
-                        } else {
+                        } else if (mMode == Mode.MAGNETIC) {
+                            onMagneticDown(event);
+                        } else if (mMode == Mode.ERASER) {
                             onEraserDown(event);
                         }
                         isMoved = true;
+                        // 开始一段轨迹时可能和上一段连起来， 整个刷新
+                        mInvalidator.invalidateAll();
                     } else {
                         if (mMode == Mode.CUT_OUT) {
                             onCutoutMove(event);
-                        } else {
+                        } else if (mMode == Mode.MAGNETIC) {
+                            onMagneticMove(event);
+                        } else if (mMode == Mode.ERASER) {
                             onEraserMove(event);
                         }
                     }
-
-
+                    invalidateTouch(event);
                 }
 
                 break;
@@ -287,6 +495,7 @@ public class CutoutView extends View {
                 if (mTouchPoint <= 1) {
                     onGestureUp(event);
                 }
+                mInvalidator.invalidateAll();
                 break;
 
             case MotionEvent.ACTION_UP:
@@ -294,21 +503,81 @@ public class CutoutView extends View {
                 isEnlargeVisible = false;
                 mUpPoint[0] = event.getX();
                 mUpPoint[1] = event.getY();
-                // 手势操作后不能进行其他操作
-                if (!isGestured) {
+                // 手势操作后不能进行其他操作， 没有移动过也没有开始任何操作
+                if (!isGestured && !isMoved && mMode == Mode.WAND) {
+                    onWandTap();
+                } else if (!isGestured && isMoved) {
                     if (mMode == Mode.CUT_OUT) {
                         onCutoutUp(event);
-                    } else {
+                    } else if (mMode == Mode.MAGNETIC) {
+                        onMagneticUp(event);
+                    } else if (mMode == Mode.ERASER) {
                         onEraserUp(event);
                     }
                 }
+                mInvalidator.invalidateAll();
                 break;
 
         }
-        postInvalidate();
         return true;
     }
 
+    /**
+     * 标记这次移动改变的区域： 上一个触摸点到这次所有的点， 加上画笔的宽度
+     * 磁性套索的吸附路径每次都会整段变化， 新旧两条路径的范围都要刷新
+     */
+    private void invalidateTouch(MotionEvent event) {
+        mDirtyRect.set(mLastTouchPoint[0], mLastTouchPoint[1], mLastTouchPoint[0], mLastTouchPoint[1]);
+        final int size = event.getHistorySize();
+        for (int i = 0; i < size; i++) {
+            mDirtyRect.union(event.getHistoricalX(i), event.getHistoricalY(i));
+        }
+        mDirtyRect.union(event.getX(), event.getY());
+        mLastTouchPoint[0] = event.getX();
+        mLastTouchPoint[1] = event.getY();
+
+        final float padding = mActionPaint.getStrokeWidth() / 2 + 2;
+        mDirtyRect.inset(-padding, -padding);
+        if (mMode == Mode.MAGNETIC) {
+            unionWireBounds(padding);
+            mWirePath.computeBounds(mWireBounds, false);
+            unionWireBounds(padding);
+        }
+        mInvalidator.invalidate(mDirtyRect);
+        invalidateEnlarge();
+    }
+
+    private void unionWireBounds(float padding) {
+        if (!mWireBounds.isEmpty()) {
+            mDirtyRect.union(mWireBounds.left - padding, mWireBounds.top - padding,
+                    mWireBounds.right + padding, mWireBounds.bottom + padding);
+        }
+    }
+
+    /**
+     * 放大镜换边的时候原来的位置也要刷新
+     */
+    private void invalidateEnlarge() {
+        final int left = getEnlargeLeft();
+        final float padding = mEnlargePaint.getStrokeWidth();
+        mInvalidator.invalidate(Math.min(left, mEnlargeLeft) - padding,
+                -padding,
+                Math.max(left, mEnlargeLeft) + mEnlargeSize + padding,
+                mEnlargeSize + padding);
+    }
+
+    /**
+     * 触摸点在左上角的时候放大镜显示在右边
+     */
+    private int getEnlargeLeft() {
+        final float effect = mEnlargeSize * 1.2f;
+        if (mMovePoint[0] < effect && mMovePoint[1] < effect) {
+            return getMeasuredWidth() - mEnlargeSize;
+        } else {
+            return 0;
+        }
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
@@ -318,10 +587,31 @@ public class CutoutView extends View {
         mViewHeight = h;
 
         mEnlargeSize = w / 4;
-        createEnlargeBgBitmap();
+        // 放大镜的缓存在第一次显示的时候再创建
+        releaseEnlargeBitmap();
         computePhotoInfo();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(mGovernor);
+    }
+
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mExecutor.shutdown();
+        cancelWand();
+        mWandExecutor.shutdown();
+        mJournal.close();
+        mRecordStore.close();
+        mMagneticLasso.close();
+        mInvalidator.cancel();
+        mTiles.close();
+        getContext().getApplicationContext().unregisterComponentCallbacks(mGovernor);
+    }
 
     @Override
     protected void onDraw(Canvas canvas) {
@@ -342,40 +632,60 @@ public class CutoutView extends View {
                 mTransparentPaint);
 
         canvas.drawBitmap(mPhotoBitmap, mPhotoLeft, mPhotoTop, mPhotoPaint);
+        // 放大之后用原图的分块代替被拉伸的编辑图片
+        mTiles.draw(canvas, getInverseMatrix(), getValues(Matrix.MSCALE_X), mPhotoBitmap, mPhotoLeft, mPhotoTop,
+                mViewWidth, mViewHeight);
 
         if (isActionTrackVisible) {
-            canvas.drawBitmap(mCutoutBitmap, mPhotoLeft, mPhotoTop, mPhotoPaint);
+            mCutoutMask.draw(canvas, mPhotoLeft, mPhotoTop, mTrackPaint);
         }
         canvas.restore();
 
         if (isActionTrackVisible && !isCutoutNewPath) {
             canvas.drawPath(mCurrentPath, mActionPaint);
+            canvas.drawPath(mWirePath, mActionPaint);
         }
 
         drawEnlarge(canvas);
     }
 
     private void drawEnlarge(Canvas canvas) {
-        if (!isEnlargeVisible || mEnlargeBgBitmap == null) {
+        if (!isEnlargeVisible) {
             return;
         }
-        final int left;
-        final float effect = mEnlargeSize * 1.2f;
-        if (mMovePoint[0] < effect && mMovePoint[1] < effect) {
-            left = getMeasuredWidth() - mEnlargeSize;
-        } else {
-            left = 0;
+        if (mEnlargeBitmap == null) {
+            createEnlargeBitmap();
+            if (mEnlargeBitmap == null) {
+                return;
+            }
+        }
+        final int left = getEnlargeLeft();
+        mEnlargeLeft = left;
+        // 这一帧只刷新了别的区域的时候不用重画放大镜
+        final float padding = mEnlargePaint.getStrokeWidth();
+        if (canvas.quickReject(left - padding, -padding, left + mEnlargeSize + padding, mEnlargeSize + padding, Canvas.EdgeType.AA)) {
+            return;
         }
 
-        float[] movePoint = new float[2];
-        mExchangedMatrix.reset();
-        mMatrix.invert(mExchangedMatrix);
-        mExchangedMatrix.mapPoints(movePoint, mMovePoint);
+        final Matrix inverse = getInverseMatrix();
+        inverse.mapPoints(mEnlargePoint, mMovePoint);
 
         final int x = left + mEnlargeSize / 2;
         final int y = mEnlargeSize / 2;
-        final float moveX = x - movePoint[0] + mPhotoLeft;
-        final float moveY = y - movePoint[1] + mPhotoTop;
+
+        /*
+         * 只在放大镜大小的缓存上画触摸点附近的内容， 耗时和图片大小无关
+         */
+        mEnlargeBitmap.eraseColor(Color.TRANSPARENT);
+        mEnlargeCanvas.save();
+        mEnlargeCanvas.translate(mEnlargeSize / 2 - mEnlargePoint[0], mEnlargeSize / 2 - mEnlargePoint[1]);
+        mEnlargeCanvas.drawBitmap(mPhotoBitmap, mPhotoLeft, mPhotoTop, mPhotoPaint);
+        if (mMode == Mode.CUT_OUT || mMode == Mode.MAGNETIC) {
+            mEnlargeCanvas.concat(inverse);
+            mEnlargeCanvas.drawPath(mCurrentPath, mActionPaint);
+            mEnlargeCanvas.drawPath(mWirePath, mActionPaint);
+        }
+        mEnlargeCanvas.restore();
 
         canvas.drawRect(
                 left,
@@ -383,22 +693,10 @@ public class CutoutView extends View {
                 left + mEnlargeSize,
                 mEnlargeSize,
                 mTransparentPaint);
-
-
-        Bitmap bitmap = getEnlargeResultBitmap();
-        int saveCount = canvas.saveLayer(0, 0, getWidth(), getHeight(), null, Canvas.ALL_SAVE_FLAG);
-        mPhotoPaint.setXfermode(null);
-        canvas.drawBitmap(mEnlargeBgBitmap, left, 0, mPhotoPaint);
-        mPhotoPaint.setXfermode(mEnlargePorterMode);
-        canvas.drawBitmap(bitmap, moveX, moveY, mPhotoPaint);
-        mPhotoPaint.setXfermode(null);
-        canvas.restoreToCount(saveCount);
+        canvas.drawBitmap(mEnlargeBitmap, left, 0, mPhotoPaint);
 
         canvas.drawRect(left, 0, left + mEnlargeSize, mEnlargeSize, mEnlargePaint);
         canvas.drawCircle(x, y, 15, mEnlargePaint);
-
-        recycleBitmap(bitmap);
-
     }
 
     /**
@@ -410,7 +708,8 @@ public class CutoutView extends View {
         isCutoutNewPath = false;
         mActionPaint.setAlpha(TRACK_ALPHA);
 
-        float[] real = computeRealPoint(mDownPoint);
+        float[] real = computeRealPoint(mDownPoint, mRealPoint);
+        StrokeLog log = mCurrentRecord.getStrokeLog();
 
         mPathMeasure.setPath(mRealPath, false);
         // 如果之前是closed 就重置
@@ -419,84 +718,352 @@ public class CutoutView extends View {
             mRealPath.moveTo(real[0], real[1]);
             mCurrentPath.reset();
             mCurrentPath.moveTo(mDownPoint[0], mDownPoint[1]);
-            mStartCutoutPoint = real;
+            mStartCutoutPoint[0] = real[0];
+            mStartCutoutPoint[1] = real[1];
+            if (mCutoutMask != null) {
+                mCutoutMask.clear();
+            }
+            log.beginStroke(StrokeLog.TOOL_TRACK, getImageStrokeWidth(), TRACK_ALPHA);
         } else {
             mRealPath.lineTo(real[0], real[1]);
+            // 和上一段连起来
+            log.beginStroke(StrokeLog.TOOL_TRACK, getImageStrokeWidth(), TRACK_ALPHA);
+            log.addPoint(mLastCutoutPoint[0] - mPhotoLeft, mLastCutoutPoint[1] - mPhotoTop);
 
-            mLastCutoutPoint = computeNowPoint(mLastCutoutPoint);
-            mCurrentPath.moveTo(mLastCutoutPoint[0], mLastCutoutPoint[1]);
+            final float[] last = computeNowPoint(mLastCutoutPoint, mNowPoint);
+            mCurrentPath.moveTo(last[0], last[1]);
             mCurrentPath.lineTo(mDownPoint[0], mDownPoint[1]);
         }
-
+        log.addPoint(real[0] - mPhotoLeft, real[1] - mPhotoTop);
+        mSimplifier.begin(mDownPoint[0], mDownPoint[1]);
     }
 
     private void onCutoutMove(MotionEvent event) {
-        float[] real = computeRealPoint(mMovePoint);
-        mRealPath.lineTo(real[0], real[1]);
-        mCurrentPath.lineTo(event.getX(), event.getY());
+        // 一个事件里可能合并了多个点， 都要用上
+        final int size = event.getHistorySize();
+        for (int i = 0; i < size; i++) {
+            addCutoutPoint(event.getHistoricalX(i), event.getHistoricalY(i));
+        }
+        addCutoutPoint(event.getX(), event.getY());
     }
 
     private void onCutoutUp(MotionEvent event) {
         isCutoutNewPath = true;
-        float[] real = computeRealPoint(mUpPoint);
-        mRealPath.lineTo(real[0], real[1]);
-        mCurrentPath.lineTo(event.getX(), event.getY());
+        onCutoutMove(event);
+        finishCutoutTrack(event);
+    }
+
+    /**
+     * 一段轨迹结束， 离起点足够近的时候闭合并提交抠图
+     */
+    private void finishCutoutTrack(MotionEvent event) {
+        if (mSimplifier.finish()) {
+            appendCutoutPoint(mSimplifier.getX(), mSimplifier.getY());
+        }
+        float[] real = computeRealPoint(mUpPoint, mRealPoint);
+        StrokeLog log = mCurrentRecord.getStrokeLog();
 
         mPathMeasure.setPath(mRealPath, false);
         final float actionLength = mPathMeasure.getLength();
         final double distance = getPointDistance(mStartCutoutPoint, real);
         if (actionLength > EFFECTIVE_MOVE_DISTANCE && distance < EFFECTIVE_DISTANCE) {
             mRealPath.close();
-            final float start[] = computeNowPoint(mStartCutoutPoint);
+            final float start[] = computeNowPoint(mStartCutoutPoint, mNowPoint);
             Path path = new Path();
             path.moveTo(event.getX(), event.getY());
             path.lineTo(start[0], start[1]);
             updateCutoutPathBitmap(path);
 
-            new Thread(mResultCutoutRunnable).start();
+            // 所有的轨迹合成一个闭合路径， 交给新的记录
+            // 原来的轨迹也留一份， 抠图没有完成的时候放回去
+            StrokeLog lasso = new StrokeLog();
+            StrokeLog track = new StrokeLog();
+            lasso.beginStroke(StrokeLog.TOOL_LASSO, 0, 255);
+            for (int i = 0; i < log.getStrokeCount(); i++) {
+                if (log.getTool(i) == StrokeLog.TOOL_TRACK) {
+                    lasso.addPoints(log, i);
+                    track.beginStroke(StrokeLog.TOOL_TRACK, log.getWidth(i), log.getAlpha(i));
+                    track.addPoints(log, i);
+                }
+            }
+            mCurrentRecord.clearCutoutTrack();
+            journalTruncate();
+
+            // 在主线程复制一份交给后台， 主线程之后擦除、 重新适配的时候可能会回收当前的图片
+            mExecutor.submit(new CutoutCommitJob(mPhotoBitmap, BitmapPool.getDefault().copy(mPhotoBitmap),
+                    lasso, track, mFeatherRadius));
         } else {
-            mCurrentRecord.addCutoutTrack(mPathMeasure.getLength());
             updateCutoutPathBitmap();
+            mCurrentPath.rewind();
 
-            Matrix matrix = new Matrix();
-            mMatrix.invert(matrix);
-            mCurrentRecord.addCutoutMatrix(matrix);
-            mCurrentRecord.addCutoutPath(mCurrentPath);
-            mCurrentPath = new Path();
-
-            mLastCutoutPoint[0] = event.getX();
-            mLastCutoutPoint[1] = event.getY();
-            mLastCutoutPoint = computeRealPoint(mLastCutoutPoint);
+            mLastCutoutPoint[0] = real[0];
+            mLastCutoutPoint[1] = real[1];
 
+            mJournal.appendStroke(log, log.getStrokeCount() - 1);
             notifyCanBack();
         }
     }
 
+    /**
+     * 显示的轨迹使用所有的点， 记录的路径和笔画只使用简化之后的点
+     */
+    private void addCutoutPoint(float x, float y) {
+        mCurrentPath.lineTo(x, y);
+        if (mSimplifier.add(x, y)) {
+            appendCutoutPoint(mSimplifier.getX(), mSimplifier.getY());
+        }
+    }
+
+    private void appendCutoutPoint(float x, float y) {
+        mSimplifiedPoint[0] = x;
+        mSimplifiedPoint[1] = y;
+        float[] real = computeRealPoint(mSimplifiedPoint, mRealPoint);
+        mRealPath.lineTo(real[0], real[1]);
+        mCurrentRecord.getStrokeLog().addPoint(real[0] - mPhotoLeft, real[1] - mPhotoTop);
+    }
+
+    /**
+     * 磁性套索按下操作， 轨迹的记录和普通的抠图一样， 只是点来自吸附之后的路径
+     */
+    private void onMagneticDown(MotionEvent event) {
+        onCutoutDown(event);
+        mWirePath.rewind();
+        mWireBounds.setEmpty();
+        mMagneticLasso.prepare(mPhotoBitmap);
+        float[] real = computeRealPoint(mDownPoint, mRealPoint);
+        mMagneticLasso.begin(real[0] - mPhotoLeft, real[1] - mPhotoTop, getMagneticReach());
+    }
+
+    private void onMagneticMove(MotionEvent event) {
+        if (!mMagneticLasso.isTracing()) {
+            // 金字塔还没算好， 算好之后从当前位置开始吸附
+            onCutoutMove(event);
+            float[] real = computeRealPoint(mMovePoint, mRealPoint);
+            mMagneticLasso.begin(real[0] - mPhotoLeft, real[1] - mPhotoTop, getMagneticReach());
+            return;
+        }
+        traceMagnetic(event.getX(), event.getY());
+    }
+
+    private void onMagneticUp(MotionEvent event) {
+        isCutoutNewPath = true;
+        if (mMagneticLasso.isTracing()) {
+            traceMagnetic(event.getX(), event.getY());
+            commitMagneticWire();
+            mMagneticLasso.end();
+        } else {
+            onCutoutMove(event);
+        }
+        mWirePath.rewind();
+        finishCutoutTrack(event);
+    }
+
+    /**
+     * 更新吸附路径， 手指离开搜索窗口的时候先把当前的路径固定下来， 再从它的终点重新搜索
+     */
+    private void traceMagnetic(float x, float y) {
+        mWirePoint[0] = x;
+        mWirePoint[1] = y;
+        float[] real = computeRealPoint(mWirePoint, mRealPoint);
+        final float imageX = real[0] - mPhotoLeft;
+        final float imageY = real[1] - mPhotoTop;
+        if (!mMagneticLasso.trace(imageX, imageY)) {
+            commitMagneticWire();
+            mMagneticLasso.beginAtEnd();
+            if (!mMagneticLasso.trace(imageX, imageY)) {
+                // 一次移动超过了整个窗口， 直接连过去
+                addCutoutPoint(x, y);
+                mMagneticLasso.begin(imageX, imageY, getMagneticReach());
+            }
+        }
+
+        mWirePath.rewind();
+        final int count = mMagneticLasso.getPointCount();
+        for (int i = 0; i < count; i++) {
+            final float[] now = computeMagneticPoint(i);
+            if (i == 0) {
+                mWirePath.moveTo(now[0], now[1]);
+            } else {
+                mWirePath.lineTo(now[0], now[1]);
+            }
+        }
+    }
+
+    /**
+     * 把当前的吸附路径 （不含锚点） 加到轨迹里
+     */
+    private void commitMagneticWire() {
+        final int count = mMagneticLasso.getPointCount();
+        for (int i = 1; i < count; i++) {
+            final float[] now = computeMagneticPoint(i);
+            addCutoutPoint(now[0], now[1]);
+        }
+    }
+
+    /**
+     * 吸附路径上的点换算到视图坐标
+     */
+    private float[] computeMagneticPoint(int index) {
+        mWirePoint[0] = mMagneticLasso.getX(index) + mPhotoLeft;
+        mWirePoint[1] = mMagneticLasso.getY(index) + mPhotoTop;
+        return computeNowPoint(mWirePoint, mNowPoint);
+    }
+
+    /**
+     * 搜索窗口在屏幕上的大小不变， 换算成图片像素
+     */
+    private float getMagneticReach() {
+        return mMagneticReach / getValues(Matrix.MSCALE_X);
+    }
+
+    /**
+     * 魔棒： 点击的位置开始填充颜色相近的连通区域， 整个区域一次擦掉， 作为一笔记录下来
+     * 记录的是填充出来的矩形， 重放和导出的时候不需要重新填充
+     * 像素在主线程复制， 填充在后台进行， 前一次还没完成的时候先排队
+     */
+    private void onWandTap() {
+        if (mPhotoBitmap == null || mPhotoBitmap.isRecycled() || mCurrentRecord == null) {
+            return;
+        }
+        float[] real = computeRealPoint(mUpPoint, mRealPoint);
+        final int x = (int) Math.floor(real[0] - mPhotoLeft);
+        final int y = (int) Math.floor(real[1] - mPhotoTop);
+        if (x < 0 || y < 0 || x >= mPhotoBitmap.getWidth() || y >= mPhotoBitmap.getHeight()) {
+            return;
+        }
+        mWandTaps.add(new Point(x, y));
+        if (!isWandRunning()) {
+            startWand();
+        }
+    }
+
+    private boolean isWandRunning() {
+        CutoutExecutor.Job job = mWandExecutor.getCurrentJob();
+        return job != null && !job.isFinished() && !job.isCancelled();
+    }
+
+    /**
+     * 取出下一个点击的位置开始填充
+     */
+    private void startWand() {
+        if (mWandTaps.isEmpty()) {
+            return;
+        }
+        if (mPhotoBitmap == null || mPhotoBitmap.isRecycled() || mCurrentRecord == null) {
+            mWandTaps.clear();
+            return;
+        }
+        Point tap = mWandTaps.removeFirst();
+        final int width = mPhotoBitmap.getWidth();
+        final int height = mPhotoBitmap.getHeight();
+        final int size = width * height;
+        // 宽度变了上一次填充的位置也对不上， 一起重新分配
+        if (mWandPixels == null || mWandPixels.length != size || mWandWidth != width) {
+            mWandPixels = new int[size];
+            mWandMask = new byte[size];
+            mWandWidth = width;
+        }
+        // 主线程随时可能回收或者替换图片， 后台只读复制出来的像素
+        mPhotoBitmap.getPixels(mWandPixels, 0, width, 0, 0, width, height);
+        mWandExecutor.submit(new WandJob(mPhotoBitmap, width, height, mWandPixels, mWandMask, tap.x, tap.y));
+    }
+
+    /**
+     * 取消还没有完成的魔棒， 排队的点击也一起丢掉
+     *
+     * @return 是否取消了一个还没有完成的魔棒
+     */
+    private boolean cancelWand() {
+        mWandTaps.clear();
+        return mWandExecutor.cancel();
+    }
+
+    /**
+     * 把填充好的区域擦掉并记录下来
+     */
+    private void applyWand(byte[] mask, long start) {
+        final int width = mPhotoBitmap.getWidth();
+        mPhotoBitmap = mEraserCompositor.attach(mPhotoBitmap);
+        mHistory.beginOperation(mPhotoBitmap, mCurrentRecord);
+        mWandBounds.set(mFloodFill.getLeft(), mFloodFill.getTop(), mFloodFill.getRight(), mFloodFill.getBottom());
+        mHistory.capture(mWandBounds);
+        mCompositor.apply(mPhotoBitmap, mWandBounds, mask, width, 0, 0, true);
+        mHistory.commitOperation();
+        mGovernor.check();
+
+        StrokeLog log = mCurrentRecord.getStrokeLog();
+        log.beginStroke(StrokeLog.TOOL_WAND, 0, 255);
+        mFloodFill.writeSpans(mask, width, log);
+        mJournal.appendStroke(log, log.getStrokeCount() - 1);
+        endMetrics(CutoutMetrics.STAGE_ERASER, start);
+        notifyCanBack();
+        postInvalidate();
+    }
+
     /**
      * 橡皮擦按下操作
      */
     private void onEraserDown(MotionEvent event) {
         isActionTrackVisible = false;
         mActionPaint.setAlpha(255);
-        mCurrentPath.reset();
-        mCurrentPath.moveTo(event.getX(), event.getY());
+
+        float[] real = computeRealPoint(mMovePoint, mRealPoint);
+        StrokeLog log = mCurrentRecord.getStrokeLog();
+        log.beginStroke(StrokeLog.TOOL_ERASER, getImageStrokeWidth(), 255);
+        log.addPoint(real[0] - mPhotoLeft, real[1] - mPhotoTop);
+
+        mPhotoBitmap = mEraserCompositor.attach(mPhotoBitmap);
+        mHistory.beginOperation(mPhotoBitmap, mCurrentRecord);
+        mEraserCompositor.begin(event.getX(), event.getY(), mMatrix, mPhotoLeft, mPhotoTop, mActionPaint.getStrokeWidth());
+        mSimplifier.begin(event.getX(), event.getY());
     }
 
     private void onEraserMove(MotionEvent event) {
-        mCurrentPath.lineTo(event.getX(), event.getY());
-        mPhotoBitmap = getEraserResultBitmap();
+        final long start = startMetrics();
+        final int size = event.getHistorySize();
+        for (int i = 0; i < size; i++) {
+            addEraserPoint(event.getHistoricalX(i), event.getHistoricalY(i));
+        }
+        addEraserPoint(event.getX(), event.getY());
+        endMetrics(CutoutMetrics.STAGE_ERASER, start);
+    }
+
+    /**
+     * 擦除使用所有的点， 记录的笔画只使用简化之后的点
+     */
+    private void addEraserPoint(float x, float y) {
+        mEraserCompositor.lineTo(x, y);
+        if (mSimplifier.add(x, y)) {
+            appendEraserPoint(mSimplifier.getX(), mSimplifier.getY());
+        }
+    }
+
+    private void appendEraserPoint(float x, float y) {
+        mSimplifiedPoint[0] = x;
+        mSimplifiedPoint[1] = y;
+        float[] real = computeRealPoint(mSimplifiedPoint, mRealPoint);
+        mCurrentRecord.getStrokeLog().addPoint(real[0] - mPhotoLeft, real[1] - mPhotoTop);
     }
 
-    @SuppressWarnings("UnusedParameters")
     private void onEraserUp(MotionEvent event) {
-        Matrix matrix = new Matrix();
-        mMatrix.invert(matrix);
-        mCurrentRecord.addEraserMatrix(matrix);
-        mCurrentRecord.addEraserPath(mCurrentPath);
-        mCurrentPath = new Path();
+        onEraserMove(event);
+        if (mSimplifier.finish()) {
+            appendEraserPoint(mSimplifier.getX(), mSimplifier.getY());
+        }
+        mHistory.commitOperation();
+        mGovernor.check();
+        StrokeLog log = mCurrentRecord.getStrokeLog();
+        mJournal.appendStroke(log, log.getStrokeCount() - 1);
         notifyCanBack();
     }
 
+    /**
+     * 画笔宽度换算到图片坐标
+     */
+    private float getImageStrokeWidth() {
+        return getInverseMatrix().mapRadius(mActionPaint.getStrokeWidth());
+    }
+
     private void onGestureMove(MotionEvent event) {
         final float pointOneX = event.getX(0);
         final float pointOneY = event.getY(0);
@@ -506,6 +1073,7 @@ public class CutoutView extends View {
         final float translateX = Math.min(pointOneX - mLastPointOne[0], pointTwoX - mLastPointTwo[0]);
         final float translateY = Math.min(pointOneY - mLastPointOne[1], pointTwoY - mLastPointTwo[1]);
         mMatrix.postTranslate(translateX, translateY);
+        isInverseDirty = true;
         mLastPointOne[0] = pointOneX;
         mLastPointOne[1] = pointOneY;
         mLastPointTwo[0] = pointTwoX;
@@ -529,6 +1097,7 @@ public class CutoutView extends View {
         }
 
         mMatrix.postScale(nowScale, nowScale, mTouchTwoPointCenter[0], mTouchTwoPointCenter[1]);
+        isInverseDirty = true;
     }
 
 
@@ -626,138 +1195,143 @@ public class CutoutView extends View {
             mZoomAnimator.cancel();
         }
 
-        List<PropertyValuesHolder> list = new ArrayList<>();
+        final int count = (scale != null ? 1 : 0) + (translateX != null ? 1 : 0) + (translateY != null ? 1 : 0);
+        if (count == 0) {
+            Log.i(TAG, "startAnimation:  no animation");
+            return;
+        }
+
+        PropertyValuesHolder[] values = mAnimatorValues[count - 1];
+        int index = 0;
         if (scale != null) {
-            list.add(scale);
+            values[index++] = scale;
         }
 
         if (translateX != null) {
-            list.add(translateX);
+            values[index++] = translateX;
         }
 
         if (translateY != null) {
-            list.add(translateY);
-        }
-
-        if (list.isEmpty()) {
-            Log.i(TAG, "startAnimation:  no animation");
-            return;
+            values[index] = translateY;
         }
-        mZoomAnimator.setValues((PropertyValuesHolder[]) list.toArray(new PropertyValuesHolder[list.size()]));
+        mZoomAnimator.setValues(values);
         mZoomAnimator.start();
     }
 
 
-    private Bitmap getEnlargeResultBitmap() {
-        Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawBitmap(mPhotoBitmap, 0, 0, mPhotoPaint);
-        if (mMode == Mode.CUT_OUT) {
-            mExchangedMatrix.reset();
-            mMatrix.invert(mExchangedMatrix);
-            int saveCount = canvas.saveLayer(0, 0, mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), null, Canvas.ALL_SAVE_FLAG);
-            canvas.translate(-mPhotoLeft, -mPhotoTop);
-            canvas.concat(mExchangedMatrix);
-            canvas.drawPath(mCurrentPath, mActionPaint);
-            canvas.restoreToCount(saveCount);
-        }
-        return bitmap;
-    }
-
-
-    /**
-     * 获取路径Bitmap
-     */
-    private Bitmap getPathBitmap() {
-        Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paint.setMaskFilter(new BlurMaskFilter(100, BlurMaskFilter.Blur.NORMAL));
-        canvas.translate(-mPhotoLeft, -mPhotoTop);
-        canvas.drawPath(mRealPath, paint);
-        return bitmap;
-    }
-
-
-    private Bitmap getEraserResultBitmap() {
-        Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        mPhotoPaint.setXfermode(null);
-        canvas.drawBitmap(mPhotoBitmap, 0, 0, mPhotoPaint);
-        mPhotoPaint.setXfermode(mEraserPorterMode);
-        canvas.drawBitmap(getEraserPathBitmap(), -mPhotoLeft, -mPhotoTop, mPhotoPaint);
-        mPhotoPaint.setXfermode(null);
-        return bitmap;
-    }
-
-    private Bitmap getEraserPathBitmap() {
-        mExchangedMatrix.reset();
-        mMatrix.invert(mExchangedMatrix);
-        Bitmap bitmap = Bitmap.createBitmap(mViewWidth, mViewHeight, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
+    private void updateCutoutPathBitmap() {
+        Canvas canvas = mCutoutMask.getCanvas();
         canvas.save();
-        canvas.concat(mExchangedMatrix);
-        canvas.drawPath(mCurrentPath, mActionPaint);
-        canvas.restore();
-        return bitmap;
-    }
-
-
-    private void updateCutoutPathBitmap() {
-        mExchangedMatrix.reset();
-        mMatrix.invert(mExchangedMatrix);
-        Canvas canvas = new Canvas(mCutoutBitmap);
-        canvas.save();
-        canvas.translate(-mPhotoLeft, -mPhotoTop);
-        canvas.concat(mExchangedMatrix);
+        canvas.translate(-mPhotoLeft, -mPhotoTop);
+        canvas.concat(getInverseMatrix());
         canvas.drawPath(mCurrentPath, mActionPaint);
         canvas.restore();
     }
 
     private void updateCutoutPathBitmap(Path path) {
-        mExchangedMatrix.reset();
-        mMatrix.invert(mExchangedMatrix);
-        Canvas canvas = new Canvas(mCutoutBitmap);
+        Canvas canvas = mCutoutMask.getCanvas();
         canvas.save();
         canvas.translate(-mPhotoLeft, -mPhotoTop);
-        canvas.concat(mExchangedMatrix);
+        canvas.concat(getInverseMatrix());
         canvas.drawPath(mCurrentPath, mActionPaint);
         canvas.drawPath(path, mActionPaint);
         canvas.restore();
     }
 
-    private Bitmap getBackEraserPathBitmap(List<Path> pathList, List<Matrix> matrixList) {
-        Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        for (int i = 0; i < pathList.size(); i++) {
-            Path path = pathList.get(i);
-            Matrix matrix = matrixList.get(i);
-            canvas.save();
-            canvas.translate(-mPhotoLeft, -mPhotoTop);
-            canvas.concat(matrix);
-            canvas.drawPath(path, mActionPaint);
-            canvas.restore();
+    private void createEnlargeBitmap() {
+        releaseEnlargeBitmap();
+        if (mEnlargeSize <= 0) {
+            return;
         }
-        return bitmap;
+        mEnlargeBitmap = BitmapPool.getDefault().get(mEnlargeSize, mEnlargeSize, Bitmap.Config.ARGB_8888);
+        mEnlargeCanvas.setBitmap(mEnlargeBitmap);
     }
 
-
-    private void createEnlargeBgBitmap() {
-        if (mEnlargeBgBitmap != null) {
-            mEnlargeBgBitmap.recycle();
-            mEnlargeBgBitmap = null;
+    private void releaseEnlargeBitmap() {
+        if (mEnlargeBitmap != null) {
+            mEnlargeCanvas.setBitmap(null);
+            recycleBitmap(mEnlargeBitmap);
+            mEnlargeBitmap = null;
         }
-        Bitmap bitmap = Bitmap.createBitmap(mEnlargeSize, mEnlargeSize, Bitmap.Config.RGB_565);
-        Canvas canvas = new Canvas(bitmap);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        canvas.drawRect(
-                0,
-                0,
-                mEnlargeSize,
-                mEnlargeSize,
-                paint);
+    }
+
+    /**
+     * 按释放的代价从低到高登记所有的图片
+     * 回退的时候发现记录已经被丢掉会回到记录图片重放笔画， 记录图片不在内存里会从磁盘解码
+     */
+    private void registerMemoryConsumers() {
+        mGovernor.register(MemoryGovernor.LEVEL_CACHE, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                return BitmapPool.getDefault().getByteCount();
+            }
 
-        mEnlargeBgBitmap = bitmap;
+            @Override
+            public void release() {
+                BitmapPool.getDefault().clear();
+            }
+        });
+        mGovernor.register(MemoryGovernor.LEVEL_CACHE, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                return mTiles.getByteCount();
+            }
+
+            @Override
+            public void release() {
+                mTiles.trim();
+            }
+        });
+        mGovernor.register(MemoryGovernor.LEVEL_BUFFER, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                return mEnlargeBitmap == null ? 0 : mEnlargeBitmap.getByteCount();
+            }
+
+            @Override
+            public void release() {
+                releaseEnlargeBitmap();
+            }
+        });
+        mGovernor.register(MemoryGovernor.LEVEL_HISTORY, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                return mRecordStore.getByteCount();
+            }
+
+            @Override
+            public void release() {
+                mRecordStore.clear();
+            }
+        });
+        mGovernor.register(MemoryGovernor.LEVEL_HISTORY, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                return mHistory.getByteCount();
+            }
+
+            @Override
+            public void release() {
+                mHistory.trimToSize(0);
+            }
+        });
+        mGovernor.register(MemoryGovernor.LEVEL_REQUIRED, new MemoryGovernor.Consumer() {
+            @Override
+            public long getByteCount() {
+                long bytes = 0;
+                if (mPhotoBitmap != null && !mPhotoBitmap.isRecycled()) {
+                    bytes += mPhotoBitmap.getByteCount();
+                }
+                if (mCutoutMask != null) {
+                    bytes += mCutoutMask.getByteCount();
+                }
+                return bytes;
+            }
+
+            @Override
+            public void release() {
+            }
+        });
     }
 
     /**
@@ -808,12 +1382,42 @@ public class CutoutView extends View {
         }
         matrix.postScale(scale, scale);
 
-        Bitmap bitmap = mPhotoBitmap;
-        mPhotoBitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+        // 解码的时候已经缩放到合适大小了就不需要再复制一份
+        if (Math.round(width * scale) != width || Math.round(height * scale) != height) {
+            final long start = startMetrics();
+            Bitmap bitmap = mPhotoBitmap;
+            mPhotoBitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+            if (mPhotoBitmap != bitmap) {
+                recycleBitmap(bitmap);
+            }
+            endMetrics(CutoutMetrics.STAGE_SCALE, start);
+        }
+        final int oldWidth = mPhotoWidth;
         mPhotoWidth = mPhotoBitmap.getWidth();
         mPhotoHeight = mPhotoBitmap.getHeight();
+        // 图片大小变了， 已经记录的笔画也要跟着缩放
+        if (mCurrentRecord != null && oldWidth > 0 && oldWidth != mPhotoWidth) {
+            mCurrentRecord.getStrokeLog().scale((float) mPhotoWidth / oldWidth);
+        }
 
-        mCutoutBitmap = Bitmap.createBitmap(mPhotoWidth, mPhotoHeight, Bitmap.Config.ARGB_8888);
+        recycleCutoutMask();
+        mCutoutMask = new MaskLayer(mPhotoWidth, mPhotoHeight);
+        if (isReplayPending) {
+            isReplayPending = false;
+            replayCurrentRecord();
+        }
+        startJournal();
+        if (mMode == Mode.MAGNETIC) {
+            mMagneticLasso.prepare(mPhotoBitmap);
+        }
+        mGovernor.check();
+    }
+
+    private void recycleCutoutMask() {
+        if (mCutoutMask != null) {
+            mCutoutMask.recycle();
+            mCutoutMask = null;
+        }
     }
 
     public void setMode(@Mode int mode) {
@@ -822,15 +1426,21 @@ public class CutoutView extends View {
         }
 
         mMode = mode;
-        if (mode == Mode.ERASER && mCurrentRecord != null) {
-            mCurrentRecord.clearPointList();
+        cancelWand();
+        if ((mode == Mode.ERASER || mode == Mode.WAND) && mCurrentRecord != null) {
+            mCurrentRecord.clearCutoutTrack();
+            journalTruncate();
+            rebuildCutoutTrack();
             isActionTrackVisible = false;
             notifyCanBack();
             postInvalidate();
-        } else if (mode == Mode.CUT_OUT) {
+        } else if (mode == Mode.CUT_OUT || mode == Mode.MAGNETIC) {
             mCurrentPath = new Path();
             mPathMeasure.setPath(mCurrentPath, false);
         }
+        if (mode == Mode.MAGNETIC) {
+            mMagneticLasso.prepare(mPhotoBitmap);
+        }
     }
 
 
@@ -840,55 +1450,523 @@ public class CutoutView extends View {
             Toast.makeText(getContext(), R.string.file_not_exist, Toast.LENGTH_SHORT).show();
             return;
         }
+        cancelCutout(false);
+        cancelWand();
         CutoutRecord record = new CutoutRecord();
         record.setImagePath(path);
 
         mMatrix.reset();
+        isInverseDirty = true;
+        mHistory.clear();
+        mRecordStore.clear();
         mCutoutRecordList.clear();
         mCutoutRecordList.add(record);
         mCurrentRecord = record;
+        isReplayPending = false;
+        mJournal.delete();
+        mJournalPhotoRect.setEmpty();
+        mMagneticLasso.reset();
         resetPhotoRectF();
 
-        mPhotoBitmap = BitmapFactory.decodeFile(path);
-        mPhotoBitmap = ImageUtils.rotateBitmap(ImageUtils.getExifOrientation(path), mPhotoBitmap);
+        mPhotoBitmap = decodePhoto(path);
+        mTiles.open(path);
         computePhotoInfo();
         postInvalidate();
     }
 
+    /**
+     * 恢复上一次被中断的编辑
+     * 只需要解码最后一条记录的图片， 然后把这条记录的擦除和抠图轨迹重放上去
+     *
+     * @return 没有可以恢复的会话时返回 false
+     */
+    public boolean resumeSession() {
+        SessionJournal.Session session = SessionJournal.read(mJournal.getFile());
+        if (session == null || !new File(session.sourcePath).isFile()) {
+            return false;
+        }
+
+        // 进程被杀的时候还没写完的记录图片没法恢复， 从后往前丢掉
+        int count = session.imagePaths.size();
+        while (count > 1 && !new File(session.imagePaths.get(count - 1)).isFile()) {
+            count--;
+        }
+        Bitmap bitmap;
+        if (count == 1) {
+            bitmap = decodePhoto(session.sourcePath);
+        } else {
+            bitmap = mRecordStore.get(session.imagePaths.get(count - 1));
+        }
+        if (bitmap == null) {
+            return false;
+        }
+
+        cancelCutout(false);
+        cancelWand();
+        mMatrix.reset();
+        mMagneticLasso.reset();
+        isInverseDirty = true;
+        mHistory.clear();
+        mRecordStore.clear();
+        mCutoutRecordList.clear();
+        for (int i = 0; i < count; i++) {
+            CutoutRecord record = new CutoutRecord();
+            record.setImagePath(session.imagePaths.get(i));
+            StrokeLog source = session.strokeLogs.get(i);
+            StrokeLog log = record.getStrokeLog();
+            for (int j = 0; j < source.getStrokeCount(); j++) {
+                log.beginStroke(source.getTool(j), source.getWidth(j), source.getAlpha(j));
+                log.addPoints(source, j);
+            }
+            mCutoutRecordList.add(record);
+        }
+        mCurrentRecord = mCutoutRecordList.get(count - 1);
+        resetPhotoRectF();
+
+        mJournal.resume(session);
+        mJournalPhotoRect.set(session.photoLeft, session.photoTop,
+                session.photoLeft + session.photoWidth, session.photoTop + session.photoHeight);
+        for (int i = count; i < session.imagePaths.size(); i++) {
+            mJournal.appendPopRecord();
+        }
+
+        mPhotoBitmap = bitmap;
+        mTiles.open(session.sourcePath);
+        mPhotoLeft = session.photoLeft;
+        mPhotoTop = session.photoTop;
+        mPhotoWidth = session.photoWidth;
+        mPhotoHeight = session.photoHeight;
+        if (count == 1) {
+            // 原图按现在的视图大小重新适配， 视图还没有测量的时候等 onSizeChanged
+            isReplayPending = true;
+            computePhotoInfo();
+        } else {
+            mPhotoWidth = bitmap.getWidth();
+            mPhotoHeight = bitmap.getHeight();
+            recycleCutoutMask();
+            mCutoutMask = new MaskLayer(mPhotoWidth, mPhotoHeight);
+            replayCurrentRecord();
+        }
+
+        notifyCanBack();
+        postInvalidate();
+        return true;
+    }
+
+    /**
+     * 把当前记录的擦除画到图片上， 并重新生成抠图轨迹
+     */
+    private void replayCurrentRecord() {
+        StrokeLog log = mCurrentRecord.getStrokeLog();
+        if (mCurrentRecord.hasErasure()) {
+            mPhotoBitmap = mEraserCompositor.attach(mPhotoBitmap);
+            mEraserCompositor.replay(log, mCompositor);
+        }
+        rebuildCutoutTrack();
+    }
+
+    /**
+     * 图片重新适配之后按当前的记录重新写一份会话日志， 顺便去掉已经回退的内容
+     * 图片的位置和大小没变的时候日志里的笔画还是对的， 回退也已经追加过了， 不需要重写
+     */
+    private void startJournal() {
+        if (mCutoutRecordList.isEmpty()) {
+            return;
+        }
+        if (!mJournalPhotoRect.isEmpty()
+                && mJournalPhotoRect.left == mPhotoLeft && mJournalPhotoRect.top == mPhotoTop
+                && mJournalPhotoRect.width() == mPhotoWidth && mJournalPhotoRect.height() == mPhotoHeight) {
+            return;
+        }
+        mJournalPhotoRect.set(mPhotoLeft, mPhotoTop, mPhotoLeft + mPhotoWidth, mPhotoTop + mPhotoHeight);
+        mJournal.begin(mCutoutRecordList.get(0).getImagePath(), mPhotoLeft, mPhotoTop, mPhotoWidth, mPhotoHeight);
+        for (int i = 0; i < mCutoutRecordList.size(); i++) {
+            CutoutRecord record = mCutoutRecordList.get(i);
+            if (i > 0) {
+                mJournal.appendRecord(record.getImagePath());
+            }
+            StrokeLog log = record.getStrokeLog();
+            for (int j = 0; j < log.getStrokeCount(); j++) {
+                mJournal.appendStroke(log, j);
+            }
+        }
+    }
+
+    /**
+     * 当前记录的笔画减少之后写入日志
+     */
+    private void journalTruncate() {
+        mJournal.appendTruncate(mCurrentRecord.getStrokeLog().getStrokeCount());
+    }
+
+
+    /**
+     * 按照视图大小和内存上限解码原图
+     */
+    private Bitmap decodePhoto(String path) {
+        int width = mViewWidth;
+        int height = mViewHeight;
+        // 还没有测量的时候先按屏幕大小解码， 之后 computePhotoInfo 再缩放
+        if (width == 0 || height == 0) {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+        }
+        final long start = startMetrics();
+        Bitmap bitmap = PhotoDecoder.decode(path, width, height, mDecodeMaxBytes);
+        endMetrics(CutoutMetrics.STAGE_DECODE, start);
+        return bitmap;
+    }
+
+    /**
+     * 读取记录对应的图片， 第一条记录是原图需要重新解码
+     */
+    private Bitmap loadRecordPhoto(CutoutRecord record) {
+        if (mCutoutRecordList.indexOf(record) == 0) {
+            return decodePhoto(record.getImagePath());
+        }
+        return mRecordStore.get(record.getImagePath());
+    }
+
+    /**
+     * 开启或者关闭性能统计， 关闭的时候统计结果也会丢掉
+     */
+    @SuppressWarnings("unused")
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled == (mMetrics != null)) {
+            return;
+        }
+        mMetrics = enabled ? new CutoutMetrics() : null;
+    }
+
+    /**
+     * @return 没有开启统计的时候返回 null， 可以用来设置回调或者清空统计
+     */
+    @SuppressWarnings("unused")
+    public CutoutMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 当前的统计结果， 包括图片和回退记录占用的内存
+     *
+     * @return 没有开启统计的时候返回 null
+     */
+    @SuppressWarnings("unused")
+    public CutoutMetrics.Snapshot getMetricsSnapshot() {
+        CutoutMetrics metrics = mMetrics;
+        if (metrics == null) {
+            return null;
+        }
+        long bitmapBytes = 0;
+        if (mPhotoBitmap != null && !mPhotoBitmap.isRecycled()) {
+            bitmapBytes += mPhotoBitmap.getByteCount();
+        }
+        if (mCutoutMask != null) {
+            bitmapBytes += mCutoutMask.getByteCount();
+        }
+        if (mEnlargeBitmap != null && !mEnlargeBitmap.isRecycled()) {
+            bitmapBytes += mEnlargeBitmap.getByteCount();
+        }
+        bitmapBytes += mTiles.getByteCount();
+        final long historyBytes = mHistory.getByteCount() + mRecordStore.getByteCount();
+        return metrics.snapshot(bitmapBytes, historyBytes, BitmapPool.getDefault());
+    }
+
+    /**
+     * 没有开启统计的时候不取时间
+     */
+    private long startMetrics() {
+        return mMetrics == null ? 0 : System.nanoTime();
+    }
+
+    private void endMetrics(int stage, long start) {
+        CutoutMetrics metrics = mMetrics;
+        if (metrics != null && start != 0) {
+            metrics.record(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 设置抠图边缘的羽化半径 （图片像素）， 默认 100
+     */
+    @SuppressWarnings("unused")
+    public void setFeatherRadius(float radius) {
+        mFeatherRadius = Math.max(0, radius);
+    }
+
+    /**
+     * 设置魔棒的颜色容差 （每个分量 0 - 255）， 默认 {@link FloodFill#DEFAULT_TOLERANCE}
+     */
+    @SuppressWarnings("unused")
+    public void setWandTolerance(int tolerance) {
+        mFloodFill.setTolerance(Math.max(0, Math.min(255, tolerance)));
+    }
+
+    /**
+     * 设置解码原图时最多占用的内存
+     */
+    @SuppressWarnings("unused")
+    public void setDecodeMaxBytes(long maxBytes) {
+        mDecodeMaxBytes = maxBytes;
+    }
+
+    /**
+     * 抠图提交
+     * 在后台生成结果， 然后回到主线程应用。
+     * 应用之前如果任务被取消或者图片已经变了就丢弃结果
+     */
+    private class CutoutCommitJob extends CutoutExecutor.Job {
+        /**
+         * 提交时的图片， 只用来判断结果是否还对得上， 后台线程不能读它
+         */
+        private final Bitmap mSource;
+        /**
+         * 提交时在主线程复制的图片， 后台线程在它上面合成
+         */
+        private final Bitmap mCopy;
+        private final StrokeLog mLasso;
+        /**
+         * 闭合之前的轨迹
+         */
+        private final StrokeLog mTrack;
+        private final CutoutRecord mRecord;
+        private final float mRadius;
+
+        CutoutCommitJob(Bitmap source, Bitmap copy, StrokeLog lasso, StrokeLog track, float radius) {
+            mSource = source;
+            mCopy = copy;
+            mLasso = lasso;
+            mTrack = track;
+            mRecord = mCurrentRecord;
+            mRadius = radius;
+        }
 
-    private Runnable mResultCutoutRunnable = new Runnable() {
         @Override
-        public void run() {
+        protected void doInBackground() {
+            final long start = startMetrics();
             notifyShowLoading();
+            notifyStage(Stage.MASK);
+
+            // 留出羽化的范围， 画到图片外面的轨迹也要参与模糊
+            MaskLayer mask = new MaskLayer(mCopy.getWidth(), mCopy.getHeight(), MaskFeather.getExtent(mRadius));
+            mask.fill(new PolygonRasterizer(), mLasso, 0, 1, 1, 0, 0);
+            if (isCancelled()) {
+                mask.recycle();
+                recycleBitmap(mCopy);
+                return;
+            }
+            notifyStage(Stage.FEATHER);
 
-            Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-            Bitmap pathBitmap = getPathBitmap();
+            mask.feather(mFeather, mRadius);
+            if (isCancelled()) {
+                mask.recycle();
+                recycleBitmap(mCopy);
+                return;
+            }
+            notifyStage(Stage.COMPOSITE);
+
+            final Bitmap bitmap = mCopy;
+            mask.applyIn(mCompositor, bitmap);
+            mask.recycle();
+            if (isCancelled()) {
+                recycleBitmap(bitmap);
+                return;
+            }
+            notifyStage(Stage.PERSIST);
+
+            // 保存一份不会被擦除修改的拷贝， PNG 在后台写
+            final Bitmap snapshot = BitmapPool.getDefault().copy(bitmap);
+            endMetrics(CutoutMetrics.STAGE_COMMIT, start);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSource != mPhotoBitmap) {
+                        // 抠图期间图片已经换了 （擦除复制了不可写的图片或者重新适配了视图）， 结果对不上了
+                        recycleBitmap(bitmap);
+                        recycleBitmap(snapshot);
+                        if (cancel()) {
+                            restoreTrack();
+                            notifyDismissLoading();
+                        }
+                        return;
+                    }
+                    if (!finish()) {
+                        recycleBitmap(bitmap);
+                        recycleBitmap(snapshot);
+                        return;
+                    }
+                    applyCutoutResult(bitmap, snapshot, mLasso);
+                }
+            });
+        }
 
-            Canvas canvas = new Canvas(bitmap);
-            mPhotoPaint.setXfermode(null);
-            canvas.drawBitmap(mPhotoBitmap, 0, 0, mPhotoPaint);
-            mPhotoPaint.setXfermode(mCutoutPorterMode);
-            canvas.drawBitmap(pathBitmap, 0, 0, mPhotoPaint);
-            mPhotoPaint.setXfermode(null);
+        /**
+         * 在主线程把闭合之前的轨迹放回记录， 可以接着画或者重新闭合
+         * 记录已经换了、 已经开始画新的轨迹或者切换到了擦除的时候不再放回
+         */
+        void restoreTrack() {
+            if (mRecord != mCurrentRecord || mRecord.hasCutoutTrack()
+                    || (mMode != Mode.CUT_OUT && mMode != Mode.MAGNETIC)) {
+                isActionTrackVisible = false;
+                postInvalidate();
+                return;
+            }
+            StrokeLog log = mRecord.getStrokeLog();
+            for (int i = 0; i < mTrack.getStrokeCount(); i++) {
+                log.beginStroke(mTrack.getTool(i), mTrack.getWidth(i), mTrack.getAlpha(i));
+                log.addPoints(mTrack, i);
+                mJournal.appendStroke(log, log.getStrokeCount() - 1);
+            }
+            rebuildCutoutTrack();
+            isActionTrackVisible = true;
+            notifyCanBack();
+            postInvalidate();
+        }
 
-            recycleBitmap(pathBitmap);
-            recycleBitmap(mPhotoBitmap);
-            mPhotoBitmap = bitmap;
+        /**
+         * 通知进入下一个阶段， 已经被新的抠图替换掉的任务不再通知， 避免进度来回跳
+         */
+        private void notifyStage(final int stage) {
+            if (mProgressListener == null || isCancelled()) {
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled() || mProgressListener == null) {
+                        return;
+                    }
+                    mProgressListener.onStage(stage);
+                    mProgressListener.onProgress(STAGE_PROGRESS[stage]);
+                }
+            });
+        }
+    }
 
-            isActionTrackVisible = false;
+    /**
+     * 在主线程应用抠图结果
+     */
+    private void applyCutoutResult(Bitmap bitmap, Bitmap snapshot, StrokeLog lasso) {
+        CutoutRecord record = new CutoutRecord();
+        StrokeLog log = record.getStrokeLog();
+        log.beginStroke(StrokeLog.TOOL_LASSO, 0, 255);
+        log.addPoints(lasso, 0);
+        // 抠图之前的图片作为检查点，回退的时候直接换回来
+        mHistory.checkpoint(mPhotoBitmap, record);
+        mPhotoBitmap = bitmap;
 
-            String path = saveResult(false);
-            CutoutRecord record = new CutoutRecord();
-            record.setImagePath(path);
-            mCutoutRecordList.add(record);
-            mCurrentRecord = record;
+        isActionTrackVisible = false;
 
-            notifyCanBack();
-            notifyDismissLoading();
+        record.setImagePath(mRecordStore.put(snapshot));
+        mCutoutRecordList.add(record);
+        mCurrentRecord = record;
+        mJournal.appendRecord(record.getImagePath());
+        mJournal.appendStroke(log, 0);
+        mGovernor.check();
+
+        notifyProgress(100);
+        notifyCanBack();
+        notifyDismissLoading();
+        postInvalidate();
+    }
+
+    /**
+     * 取消正在进行的抠图
+     *
+     * @param restoreTrack 是否把闭合之前的轨迹放回去， 换图片的时候不需要
+     * @return 是否取消了一个还没有完成的抠图
+     */
+    private boolean cancelCutout(boolean restoreTrack) {
+        CutoutExecutor.Job job = mExecutor.getCurrentJob();
+        if (!mExecutor.cancel()) {
+            return false;
+        }
+        if (restoreTrack && job instanceof CutoutCommitJob) {
+            ((CutoutCommitJob) job).restoreTrack();
+        } else {
+            isActionTrackVisible = false;
             postInvalidate();
         }
-    };
+        notifyDismissLoading();
+        return true;
+    }
+
+
+    /**
+     * 魔棒的后台填充
+     * 像素和蒙版都是复用的： 开始之前先清掉上一次填充的区域， 结果在主线程应用完之后才会开始下一次
+     * 应用之前图片、 记录或者模式已经变了就丢弃结果， 排队的点击也不再处理
+     */
+    private class WandJob extends CutoutExecutor.Job {
+        /**
+         * 只用来判断图片有没有换， 后台不读它的像素
+         */
+        private final Bitmap mSource;
+        private final CutoutRecord mRecord;
+        private final int mWidth;
+        private final int mHeight;
+        private final int[] mPixels;
+        private final byte[] mMask;
+        private final int mX;
+        private final int mY;
+        private final long mStart;
+
+        WandJob(Bitmap source, int width, int height, int[] pixels, byte[] mask, int x, int y) {
+            mSource = source;
+            mRecord = mCurrentRecord;
+            mWidth = width;
+            mHeight = height;
+            mPixels = pixels;
+            mMask = mask;
+            mX = x;
+            mY = y;
+            mStart = startMetrics();
+        }
+
+        @Override
+        protected void doInBackground() {
+            clearMask(mWidth, mHeight);
+            if (isCancelled()) {
+                return;
+            }
+            final int count = mFloodFill.fill(mPixels, mWidth, mHeight, mX, mY, mMask);
+            if (isCancelled()) {
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSource != mPhotoBitmap || mRecord != mCurrentRecord || mMode != Mode.WAND) {
+                        // 填充期间图片、 记录或者模式换了， 区域对不上了或者不该再擦了
+                        if (cancel()) {
+                            mWandTaps.clear();
+                        }
+                        return;
+                    }
+                    if (!finish()) {
+                        return;
+                    }
+                    if (count > 0) {
+                        applyWand(mMask, mStart);
+                    }
+                    startWand();
+                }
+            });
+        }
 
+        /**
+         * 上一次填充只写了外接矩形里的部分， 只清这一块
+         */
+        private void clearMask(int width, int height) {
+            final int right = Math.min(width, mFloodFill.getRight());
+            final int bottom = Math.min(height, mFloodFill.getBottom());
+            final int left = mFloodFill.getLeft();
+            for (int y = mFloodFill.getTop(); y < bottom && left < right; y++) {
+                Arrays.fill(mMask, y * width + left, y * width + right, (byte) 0);
+            }
+        }
+    }
 
     /**
      * 回退
@@ -899,19 +1977,27 @@ public class CutoutView extends View {
      * 3. 回退抠图
      */
     public void back() {
+        // 抠图还在进行中的时候回退就是取消这次抠图， 轨迹还原到闭合之前
+        if (cancelCutout(true)) {
+            return;
+        }
+        // 魔棒还没有擦掉的时候回退就是取消这次魔棒
+        if (cancelWand()) {
+            return;
+        }
         if (mCurrentRecord == null) {
             Log.i(TAG, "back: mCurrentRecord is null");
             return;
         }
-        List<Float> cutoutTrackList = mCurrentRecord.getCutoutTrackList();
-        List<Path> eraserPatList = mCurrentRecord.getEraserPathList();
-        if (!cutoutTrackList.isEmpty()) {
-            backCutoutAction(cutoutTrackList);
-        } else if (!eraserPatList.isEmpty()) {
-            backEraserPath(eraserPatList, mCurrentRecord.getEraserMatrixList());
+        final long start = startMetrics();
+        if (mCurrentRecord.hasCutoutTrack()) {
+            backCutoutAction();
+        } else if (mCurrentRecord.hasEraser()) {
+            backEraserPath();
         } else if (!mCutoutRecordList.isEmpty()) {
             backRecord();
         }
+        endMetrics(CutoutMetrics.STAGE_UNDO, start);
     }
 
 
@@ -921,73 +2007,125 @@ public class CutoutView extends View {
         }
         final int size = mCutoutRecordList.size();
         int last = size - 1;
-        mCutoutRecordList.remove(last);
+        CutoutRecord record = mCutoutRecordList.remove(last);
         mCurrentRecord = mCutoutRecordList.get(last - 1);
-        mPhotoBitmap = BitmapFactory.decodeFile(mCurrentRecord.getImagePath());
+        mJournal.appendPopRecord();
 
-        if (size == 2) {
-            computePhotoInfo();
-            notifyCanBack();
-        }
-        List<Path> pathList = mCurrentRecord.getEraserPathList();
-        if (!pathList.isEmpty()) {
-            // 方法默认是回退一个的， 但是现在回退到record 的时候不需要回退这么多
-            mActionPaint.setAlpha(255);
-            pathList.add(new Path());
-            backEraserPath(pathList, mCurrentRecord.getEraserMatrixList());
+        if (mHistory.isCheckpoint(record)) {
+            Bitmap bitmap = mHistory.undo(mPhotoBitmap);
+            recycleBitmap(mPhotoBitmap);
+            mPhotoBitmap = bitmap;
+        } else {
+            // 检查点已经因为内存上限被丢弃了， 回到上一条记录的原图再重放它的擦除
+            recycleBitmap(mPhotoBitmap);
+            mPhotoBitmap = loadRecordPhoto(mCurrentRecord);
+            if (size == 2) {
+                computePhotoInfo();
+            }
+            replayCurrentRecord();
+            mHistory.clear();
         }
 
-        // 擦除的path 给画上去
+        notifyCanBack();
         postInvalidate();
     }
 
-    private void backEraserPath(List<Path> pathList, List<Matrix> matrixList) {
-        final int size = pathList.size();
-        recycleBitmap(mPhotoBitmap);
-        mPhotoBitmap = BitmapFactory.decodeFile(mCurrentRecord.getImagePath());
-        computePhotoInfo();
-        if (size == 1) {
-            mCurrentRecord.clearEraserInfo();
-            notifyCanBack();
+    private void backEraserPath() {
+        mCurrentRecord.removeLastStroke();
+        journalTruncate();
+        if (mHistory.isTiles(mCurrentRecord)) {
+            mPhotoBitmap = mHistory.undo(mPhotoBitmap);
         } else {
-            pathList.remove(pathList.size() - 1);
-            matrixList.remove(matrixList.size() - 1);
-            Bitmap pathBitmap = getBackEraserPathBitmap(pathList, matrixList);
-            Bitmap bitmap = Bitmap.createBitmap(mPhotoBitmap.getWidth(), mPhotoBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(bitmap);
-            mPhotoPaint.setXfermode(null);
-            canvas.drawBitmap(mPhotoBitmap, 0, 0, mPhotoPaint);
-            mPhotoPaint.setXfermode(mEraserPorterMode);
-            canvas.drawBitmap(pathBitmap, 0, 0, mPhotoPaint);
-            mPhotoPaint.setXfermode(null);
-
+            // 分块记录已经因为内存上限被丢弃了， 回到这条记录的原图再重放剩下的擦除
             recycleBitmap(mPhotoBitmap);
-            recycleBitmap(pathBitmap);
-            mPhotoBitmap = bitmap;
+            mPhotoBitmap = loadRecordPhoto(mCurrentRecord);
+            computePhotoInfo();
+            replayCurrentRecord();
+            mHistory.clear();
         }
 
+        if (!mCurrentRecord.hasRecord()) {
+            notifyCanBack();
+        }
         postInvalidate();
     }
 
-    private void backCutoutAction(List<Float> cutoutTrackList) {
-        final int size = cutoutTrackList.size();
-        if (size == 1) {
-            cutoutTrackList.clear();
-            mCurrentPath.reset();
-            mPathMeasure.setPath(mCurrentPath, false);
+    private void backCutoutAction() {
+        mCurrentRecord.removeLastStroke();
+        journalTruncate();
+        rebuildCutoutTrack();
+        if (!mCurrentRecord.hasRecord()) {
             notifyCanBack();
-        } else {
-            Path path = new Path();
-            path.moveTo(mDownPoint[0], mDownPoint[1]);
-            float length = cutoutTrackList.get(size - 2);
-            mPathMeasure.getSegment(0, length, path, false);
-            mCurrentPath = path;
-            mPathMeasure.setPath(mCurrentPath, false);
-            cutoutTrackList.remove(size - 1);
         }
         postInvalidate();
     }
 
+    /**
+     * 根据记录重新生成抠图轨迹
+     */
+    private void rebuildCutoutTrack() {
+        mRealPath.reset();
+        mCurrentPath.reset();
+        mPathMeasure.setPath(mCurrentPath, false);
+        if (mCutoutMask == null || mCurrentRecord == null) {
+            return;
+        }
+        mCutoutMask.clear();
+
+        StrokeLog log = mCurrentRecord.getStrokeLog();
+        final float[] points = log.getPoints();
+        final float width = mActionPaint.getStrokeWidth();
+        final int alpha = mActionPaint.getAlpha();
+        Canvas canvas = mCutoutMask.getCanvas();
+        Path path = new Path();
+        boolean first = true;
+        for (int i = 0; i < log.getStrokeCount(); i++) {
+            if (log.getTool(i) != StrokeLog.TOOL_TRACK) {
+                continue;
+            }
+            path.reset();
+            CutoutRecord.toPath(log, i, path, 0, 0);
+            mActionPaint.setStrokeWidth(log.getWidth(i));
+            mActionPaint.setAlpha(log.getAlpha(i));
+            canvas.drawPath(path, mActionPaint);
+
+            final int offset = log.getPointOffset(i);
+            final int count = log.getPointCount(i);
+            for (int j = 0; j < count; j++) {
+                final float x = points[offset + j * 2] + mPhotoLeft;
+                final float y = points[offset + j * 2 + 1] + mPhotoTop;
+                if (first) {
+                    mRealPath.moveTo(x, y);
+                    mStartCutoutPoint[0] = x;
+                    mStartCutoutPoint[1] = y;
+                    first = false;
+                } else {
+                    mRealPath.lineTo(x, y);
+                }
+                mLastCutoutPoint[0] = x;
+                mLastCutoutPoint[1] = y;
+            }
+        }
+        mActionPaint.setStrokeWidth(width);
+        mActionPaint.setAlpha(alpha);
+    }
+
+
+    /**
+     * 设置回退记录的内存上限
+     */
+    @SuppressWarnings("unused")
+    public void setHistoryMaxBytes(long maxBytes) {
+        mHistory.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * 设置所有图片最多占用的内存， 超过之后依次释放复用池、 原图分块、 放大镜和回退记录
+     */
+    @SuppressWarnings("unused")
+    public void setMemoryMaxBytes(long maxBytes) {
+        mGovernor.setMaxBytes(maxBytes);
+    }
 
     /**
      * 保存图片
@@ -998,14 +2136,86 @@ public class CutoutView extends View {
     }
 
 
+    /**
+     * 按原图分辨率保存
+     * 备注： 耗时操作， 不要在主线程调用
+     */
+    @SuppressWarnings("unused")
+    public String saveFullResult() {
+        CutoutExporter exporter;
+        try {
+            exporter = getFullExporter();
+        } catch (Exception e) {
+            Log.e(TAG, "saveFullResult: prepare failed", e);
+            return "";
+        }
+        if (exporter == null) {
+            return "";
+        }
+
+        File file = generateRandomPhotoFile(getContext());
+        final long start = startMetrics();
+        try {
+            exporter.export(file);
+            return file.getAbsolutePath();
+        } catch (Exception e) {
+            Log.e(TAG, "saveFullResult: failed", e);
+            if (file.exists() && !file.delete()) {
+                Log.e(TAG, "saveFullResult: can not delete " + file);
+            }
+            return "";
+        } finally {
+            endMetrics(CutoutMetrics.STAGE_SAVE, start);
+        }
+    }
+
+    /**
+     * 记录只能在主线程读， 导出的时候主线程还可能在继续抠图。
+     * 在主线程里面把笔画复制给导出器， 后台只做导出
+     */
+    private CutoutExporter getFullExporter() throws Exception {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            return createFullExporter();
+        }
+        FutureTask<CutoutExporter> task = new FutureTask<>(new Callable<CutoutExporter>() {
+            @Override
+            public CutoutExporter call() throws Exception {
+                return createFullExporter();
+            }
+        });
+        new Handler(Looper.getMainLooper()).post(task);
+        return task.get();
+    }
+
+    /**
+     * 只能在主线程调用
+     */
+    @Nullable
+    private CutoutExporter createFullExporter() {
+        if (mCutoutRecordList.isEmpty()) {
+            return null;
+        }
+        CutoutExporter exporter = new CutoutExporter(
+                mCutoutRecordList.get(0).getImagePath(),
+                mPhotoWidth,
+                mPhotoHeight);
+        exporter.setFeatherRadius(mFeatherRadius);
+        for (CutoutRecord record : mCutoutRecordList) {
+            exporter.addStrokeLog(record.getStrokeLog());
+        }
+        return exporter;
+    }
+
     private String saveResult(boolean recycle) {
 
         File cache = generateRandomPhotoFile(getContext());
+        final long start = startMetrics();
         try {
             FileOutputStream out = new FileOutputStream(cache);
             mPhotoBitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
             out.flush();
             out.close();
+            endMetrics(CutoutMetrics.STAGE_SAVE, start);
             Log.e(TAG, cache.getAbsolutePath());
             return cache.getAbsolutePath();
         } catch (Exception e) {
@@ -1058,6 +2268,30 @@ public class CutoutView extends View {
         });
     }
 
+    private OnCutoutProgressListener mProgressListener;
+
+    /**
+     * 需要显示抠图进度的时候设置
+     */
+    @SuppressWarnings("unused")
+    public void setOnCutoutProgressListener(OnCutoutProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    private void notifyProgress(final int progress) {
+        if (mProgressListener == null) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mProgressListener != null) {
+                    mProgressListener.onProgress(progress);
+                }
+            }
+        });
+    }
+
     private void notifyDismissLoading() {
         if (mCutoutListener == null) {
             return;
@@ -1102,11 +2336,11 @@ public class CutoutView extends View {
     }
 
 
+    /**
+     * 不再使用的图片放回复用池
+     */
     private void recycleBitmap(Bitmap bitmap) {
-        if (bitmap != null) {
-            bitmap.recycle();
-        }
-
+        BitmapPool.getDefault().put(bitmap);
     }
 
     private void resetPhotoRectF() {
@@ -1117,15 +2351,12 @@ public class CutoutView extends View {
     }
 
     private float getValues(int index) {
-        float[] values = new float[9];
-        mMatrix.getValues(values);
-        return values[index];
+        return getValues(mMatrix, index);
     }
 
     private float getValues(Matrix matrix, int index) {
-        float[] values = new float[9];
-        matrix.getValues(values);
-        return values[index];
+        matrix.getValues(mMatrixValues);
+        return mMatrixValues[index];
     }
 
     private ValueAnimator.AnimatorUpdateListener mAniListener = new ValueAnimator.AnimatorUpdateListener() {
@@ -1137,6 +2368,7 @@ public class CutoutView extends View {
                 float lastScale = getValues(Matrix.MSCALE_X);
                 scale = scale / lastScale;
                 mMatrix.postScale(scale, scale, mTouchTwoPointCenter[0], mTouchTwoPointCenter[1]);
+                isInverseDirty = true;
             }
 
             float lastTranslateX = getValues(Matrix.MTRANS_X);
@@ -1160,32 +2392,41 @@ public class CutoutView extends View {
 
             if (translateX != 0 || translateY != 0) {
                 mMatrix.postTranslate(translateX, translateY);
+                isInverseDirty = true;
             }
-            postInvalidate();
+            mInvalidator.invalidateAll();
         }
     };
 
-    private float[] computeRealPoint(float[] point) {
-        float[] real = new float[2];
-        mExchangedMatrix.reset();
-        mMatrix.invert(mExchangedMatrix);
-        Log.i(TAG, "computeRealPoint: mExchangedMatrix = " + mExchangedMatrix);
-        mExchangedMatrix.mapPoints(real, point);
-        Log.i(TAG, "computeRealPoint: real x = " + real[0] + " , real y = " + real[1]);
+    /**
+     * 视图坐标 -> 没有缩放时的坐标， 结果写到 real 里
+     */
+    private float[] computeRealPoint(float[] point, float[] real) {
+        getInverseMatrix().mapPoints(real, point);
         return real;
     }
 
-    private float[] computeNowPoint(float[] point) {
-        float[] now = new float[2];
+    /**
+     * 没有缩放时的坐标 -> 视图坐标， 结果写到 now 里
+     */
+    private float[] computeNowPoint(float[] point, float[] now) {
         mMatrix.mapPoints(now, point);
         return now;
     }
 
+    private Matrix getInverseMatrix() {
+        if (isInverseDirty) {
+            mMatrix.invert(mInverseMatrix);
+            isInverseDirty = false;
+        }
+        return mInverseMatrix;
+    }
+
     /**
      * 定义图片是单选还是多选
      */
     @SuppressWarnings("WeakerAccess")
-    @IntDef({Mode.CUT_OUT, Mode.ERASER})
+    @IntDef({Mode.CUT_OUT, Mode.ERASER, Mode.MAGNETIC, Mode.WAND})
     @Retention(RetentionPolicy.SOURCE)
     public @interface Mode {
         /**
@@ -1196,6 +2437,39 @@ public class CutoutView extends View {
          * 多选
          */
         int ERASER = 2;
+        /**
+         * 磁性套索， 轨迹吸附到图片的边缘
+         */
+        int MAGNETIC = 3;
+        /**
+         * 魔棒， 点击擦掉颜色相近的连通区域
+         */
+        int WAND = 4;
+    }
+
+    /**
+     * 抠图提交的阶段
+     */
+    @SuppressWarnings("WeakerAccess")
+    @IntDef({Stage.MASK, Stage.FEATHER, Stage.COMPOSITE, Stage.PERSIST})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Stage {
+        /**
+         * 填充闭合路径
+         */
+        int MASK = 0;
+        /**
+         * 羽化边缘
+         */
+        int FEATHER = 1;
+        /**
+         * 合成抠图结果
+         */
+        int COMPOSITE = 2;
+        /**
+         * 保存记录
+         */
+        int PERSIST = 3;
     }
 
 
@@ -1209,4 +2483,25 @@ public class CutoutView extends View {
         void dismissLoading();
     }
 
+    /**
+     * 抠图进度， 不需要的时候可以不设置
+     */
+    @SuppressWarnings("WeakerAccess")
+    public interface OnCutoutProgressListener {
+        /**
+         * 抠图进入新的阶段， 之后会紧跟着一次 {@link #onProgress(int)}
+         * 被新的抠图替换掉的任务不会再回调
+         *
+         * @param stage {@link Stage#MASK} 等
+         */
+        void onStage(@Stage int stage);
+
+        /**
+         * 抠图进度
+         *
+         * @param progress 0 - 100
+         */
+        void onProgress(int progress);
+    }
+
 }
@@ -0,0 +1,195 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 磁性套索的边缘代价金字塔
+ * <p>
+ * 第 0 层和图片一样大： 对亮度做 Sobel 求梯度， 梯度越大代价越小， 每个像素一个字节。
+ * 梯度按 98% 分位数归一化， 个别很强的边缘不会把其余的边缘都压成高代价。
+ * 之后每一层长宽减半， 取 2x2 里最小的代价， 细的边缘在粗的层里也不会消失。
+ * 每张图片只在后台计算一次， 之后搜索只读不写， 可以在主线程直接用。
+ */
+class EdgeCostPyramid {
+    /**
+     * 代价的最大值
+     */
+    static final int MAX_COST = 255;
+    private static final int MIN_BAND = 32;
+    /**
+     * 梯度直方图的桶数， Sobel 在亮度 0 - 255 上的最大值不超过 1443
+     */
+    private static final int GRADIENT_BUCKETS = 1444;
+    private static final float PERCENTILE = 0.98F;
+
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final byte[][] mCosts;
+
+    private EdgeCostPyramid(int levels) {
+        mWidths = new int[levels];
+        mHeights = new int[levels];
+        mCosts = new byte[levels][];
+    }
+
+    /**
+     * 计算金字塔
+     *
+     * @param pixels 非预乘的 ARGB， 完全透明的像素按黑色处理
+     * @param levels 层数， 宽高太小的时候会少于这个数
+     */
+    static EdgeCostPyramid build(final int[] pixels, final int width, final int height, int levels, ParallelBands bands) {
+        int count = 1;
+        while (count < levels && (width >> count) > 0 && (height >> count) > 0) {
+            count++;
+        }
+        EdgeCostPyramid pyramid = new EdgeCostPyramid(count);
+
+        final byte[] luma = new byte[width * height];
+        bands.run(height, MIN_BAND, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start * width; i < end * width; i++) {
+                    final int color = pixels[i];
+                    final int alpha = color >>> 24;
+                    // BT.601， 按透明度压暗， 抠掉的区域和保留的区域之间也是边缘
+                    final int y = (77 * ((color >> 16) & 0xFF) + 150 * ((color >> 8) & 0xFF) + 29 * (color & 0xFF)) >> 8;
+                    luma[i] = (byte) PixelKernels.multiply(y, alpha);
+                }
+            }
+        });
+
+        final short[] gradient = new short[width * height];
+        final int[][] histograms = new int[bands.getThreadCount()][];
+        bands.run(height, MIN_BAND, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                int[] histogram = new int[GRADIENT_BUCKETS];
+                sobel(luma, gradient, histogram, width, height, start, end);
+                synchronized (histograms) {
+                    for (int i = 0; i < histograms.length; i++) {
+                        if (histograms[i] == null) {
+                            histograms[i] = histogram;
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+
+        final int reference = percentile(histograms, (long) width * height);
+        final byte[] cost = new byte[width * height];
+        bands.run(height, MIN_BAND, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start * width; i < end * width; i++) {
+                    final int value = Math.min(MAX_COST, gradient[i] * MAX_COST / reference);
+                    cost[i] = (byte) (MAX_COST - value);
+                }
+            }
+        });
+
+        pyramid.mWidths[0] = width;
+        pyramid.mHeights[0] = height;
+        pyramid.mCosts[0] = cost;
+        for (int level = 1; level < count; level++) {
+            pyramid.mWidths[level] = width >> level;
+            pyramid.mHeights[level] = height >> level;
+            pyramid.mCosts[level] = downsample(pyramid.mCosts[level - 1], pyramid.mWidths[level - 1],
+                    pyramid.mWidths[level], pyramid.mHeights[level]);
+        }
+        return pyramid;
+    }
+
+    int getLevelCount() {
+        return mCosts.length;
+    }
+
+    int getWidth(int level) {
+        return mWidths[level];
+    }
+
+    int getHeight(int level) {
+        return mHeights[level];
+    }
+
+    /**
+     * 某一层的代价， 每个像素一个字节， 0 是最强的边缘
+     */
+    byte[] getCost(int level) {
+        return mCosts[level];
+    }
+
+    long getByteCount() {
+        long bytes = 0;
+        for (byte[] cost : mCosts) {
+            bytes += cost.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Sobel 梯度的近似模长 |gx| + |gy|， 边界上的像素按复制边缘处理
+     */
+    private static void sobel(byte[] luma, short[] gradient, int[] histogram, int width, int height, int startRow, int endRow) {
+        for (int y = startRow; y < endRow; y++) {
+            final int above = Math.max(0, y - 1) * width;
+            final int row = y * width;
+            final int below = Math.min(height - 1, y + 1) * width;
+            for (int x = 0; x < width; x++) {
+                final int left = Math.max(0, x - 1);
+                final int right = Math.min(width - 1, x + 1);
+                final int a = luma[above + left] & 0xFF;
+                final int b = luma[above + x] & 0xFF;
+                final int c = luma[above + right] & 0xFF;
+                final int d = luma[row + left] & 0xFF;
+                final int f = luma[row + right] & 0xFF;
+                final int g = luma[below + left] & 0xFF;
+                final int h = luma[below + x] & 0xFF;
+                final int i = luma[below + right] & 0xFF;
+                final int gx = (c + 2 * f + i) - (a + 2 * d + g);
+                final int gy = (g + 2 * h + i) - (a + 2 * b + c);
+                // 两个方向各自不超过 1020， 近似模长按欧氏距离的上界折算回来
+                final int magnitude = Math.min(GRADIENT_BUCKETS - 1, (Math.abs(gx) + Math.abs(gy)) * 181 >> 8);
+                gradient[row + x] = (short) magnitude;
+                histogram[magnitude]++;
+            }
+        }
+    }
+
+    /**
+     * 所有行带的直方图合起来求分位数， 至少为 1
+     */
+    private static int percentile(int[][] histograms, long total) {
+        final long target = (long) (total * PERCENTILE);
+        long count = 0;
+        for (int value = 0; value < GRADIENT_BUCKETS; value++) {
+            for (int[] histogram : histograms) {
+                if (histogram != null) {
+                    count += histogram[value];
+                }
+            }
+            if (count >= target) {
+                return Math.max(1, value);
+            }
+        }
+        return GRADIENT_BUCKETS - 1;
+    }
+
+    /**
+     * 长宽减半， 取 2x2 的最小值
+     */
+    private static byte[] downsample(byte[] source, int sourceWidth, int width, int height) {
+        final byte[] result = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final int top = y * 2 * sourceWidth;
+            final int bottom = top + sourceWidth;
+            for (int x = 0; x < width; x++) {
+                final int sx = x * 2;
+                final int a = Math.min(source[top + sx] & 0xFF, source[top + sx + 1] & 0xFF);
+                final int b = Math.min(source[bottom + sx] & 0xFF, source[bottom + sx + 1] & 0xFF);
+                result[y * width + x] = (byte) Math.min(a, b);
+            }
+        }
+        return result;
+    }
+}
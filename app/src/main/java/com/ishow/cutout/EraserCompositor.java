@@ -0,0 +1,192 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Created by yuhaiyang on 2017/10/9.
+ * 增量擦除
+ * <p>
+ * 持有一张可写的工作图片，每次移动只把最新的一段轨迹用 DST_OUT 画上去，
+ * 并且裁剪到这一段的脏区域，所以开销只和笔刷大小有关，和图片大小、轨迹长度无关
+ */
+class EraserCompositor {
+    /**
+     * 工作图片 （就是当前显示的图片）
+     */
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private Paint mPaint;
+    /**
+     * 视图坐标 -> 图片坐标
+     */
+    private Matrix mViewToPhoto;
+    private Path mSegment;
+    private RectF mDirtyRectF;
+    private Rect mDirtyRect;
+    /**
+     * 上一个点 （视图坐标）
+     */
+    private float mLastX;
+    private float mLastY;
+    private float[] mPoints;
+    /**
+     * 修改之前先保存要改的块
+     */
+    private TileHistory mHistory;
+
+    EraserCompositor() {
+        mCanvas = new Canvas();
+        mViewToPhoto = new Matrix();
+        mSegment = new Path();
+        mDirtyRectF = new RectF();
+        mDirtyRect = new Rect();
+        mPoints = new float[4];
+
+        mPaint = new Paint();
+        mPaint.setDither(true);
+        mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+        mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+    }
+
+    /**
+     * 绑定工作图片，如果图片不可写会复制一份并回收原图
+     *
+     * @return 真正的工作图片
+     */
+    Bitmap attach(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            detach();
+            return bitmap;
+        }
+        if (bitmap == mBitmap) {
+            return bitmap;
+        }
+
+        if (!bitmap.isMutable()) {
+            Bitmap copy = BitmapPool.getDefault().copy(bitmap);
+            bitmap.recycle();
+            bitmap = copy;
+        }
+        mBitmap = bitmap;
+        mCanvas.setBitmap(bitmap);
+        return bitmap;
+    }
+
+    void setHistory(TileHistory history) {
+        mHistory = history;
+    }
+
+    void detach() {
+        mBitmap = null;
+        mCanvas.setBitmap(null);
+    }
+
+    boolean isAttached(Bitmap bitmap) {
+        return bitmap != null && bitmap == mBitmap && !bitmap.isRecycled();
+    }
+
+    /**
+     * 开始一笔
+     *
+     * @param viewMatrix 视图当前的缩放矩阵
+     * @param photoLeft  图片的左边距
+     * @param photoTop   图片的上边距
+     * @param width      笔刷宽度 （视图坐标）
+     */
+    void begin(float x, float y, Matrix viewMatrix, int photoLeft, int photoTop, float width) {
+        viewMatrix.invert(mViewToPhoto);
+        mViewToPhoto.postTranslate(-photoLeft, -photoTop);
+        mPaint.setStrokeWidth(width);
+        mLastX = x;
+        mLastY = y;
+    }
+
+    /**
+     * 擦除上一个点到当前点这一段
+     *
+     * @return 图片坐标下的脏区域，没有画任何东西的时候返回 null
+     */
+    Rect lineTo(float x, float y) {
+        if (mBitmap == null || mBitmap.isRecycled()) {
+            return null;
+        }
+
+        mPoints[0] = mLastX;
+        mPoints[1] = mLastY;
+        mPoints[2] = x;
+        mPoints[3] = y;
+        mViewToPhoto.mapPoints(mPoints);
+        final float radius = mViewToPhoto.mapRadius(mPaint.getStrokeWidth() / 2) + 1;
+
+        mDirtyRectF.set(
+                Math.min(mPoints[0], mPoints[2]) - radius,
+                Math.min(mPoints[1], mPoints[3]) - radius,
+                Math.max(mPoints[0], mPoints[2]) + radius,
+                Math.max(mPoints[1], mPoints[3]) + radius);
+        mDirtyRectF.roundOut(mDirtyRect);
+        if (!mDirtyRect.intersect(0, 0, mBitmap.getWidth(), mBitmap.getHeight())) {
+            mLastX = x;
+            mLastY = y;
+            return null;
+        }
+
+        // 笔刷宽度是视图坐标的，所以在视图坐标下构造线段再整体映射到图片上
+        mSegment.rewind();
+        mSegment.moveTo(mLastX, mLastY);
+        mSegment.lineTo(x, y);
+        mLastX = x;
+        mLastY = y;
+
+        if (mHistory != null) {
+            mHistory.capture(mDirtyRect);
+        }
+        mCanvas.save();
+        mCanvas.clipRect(mDirtyRect);
+        mCanvas.concat(mViewToPhoto);
+        mCanvas.drawPath(mSegment, mPaint);
+        mCanvas.restore();
+        return mDirtyRect;
+    }
+
+    /**
+     * 把记录中所有的擦除和魔棒一次性应用到工作图片上， 不保存回退记录
+     * 所有擦除先画到一张蒙版上， 再多核合成一次， 和逐笔 DST_OUT 的结果一致
+     */
+    void replay(StrokeLog log, MaskCompositor compositor) {
+        if (mBitmap == null || mBitmap.isRecycled()
+                || (log.countOfTool(StrokeLog.TOOL_ERASER) == 0 && log.countOfTool(StrokeLog.TOOL_WAND) == 0)) {
+            return;
+        }
+        MaskLayer mask = new MaskLayer(mBitmap.getWidth(), mBitmap.getHeight());
+        Canvas canvas = mask.getCanvas();
+        Paint paint = new Paint(mPaint);
+        paint.setXfermode(null);
+        Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int i = 0; i < log.getStrokeCount(); i++) {
+            final int tool = log.getTool(i);
+            if (tool == StrokeLog.TOOL_ERASER) {
+                mSegment.rewind();
+                CutoutRecord.toPath(log, i, mSegment, 0, 0);
+                paint.setStrokeWidth(log.getWidth(i));
+                canvas.drawPath(mSegment, paint);
+            } else if (tool == StrokeLog.TOOL_WAND) {
+                mSegment.rewind();
+                CutoutRecord.toRects(log, i, mSegment);
+                canvas.drawPath(mSegment, fillPaint);
+            }
+        }
+        mask.applyOut(compositor, mBitmap);
+        mask.recycle();
+    }
+}
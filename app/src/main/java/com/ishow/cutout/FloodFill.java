@@ -0,0 +1,260 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 魔棒的区域填充
+ * <p>
+ * 按行的区间填充 （span fill）： 每次把一行里连续的可填充像素一起填掉， 只把上下两行需要继续扫描的区间压栈，
+ * 不用递归， 栈里的元素数和区域的周长有关， 和面积无关。
+ * 栈的大小是固定的， 满了以后新的区间先不压栈， 只记下来； 栈清空之后按行扫描一遍，
+ * 从已经填充的像素旁边还能填充的地方重新开始， 直到没有遗漏。 内存始终有上限。
+ */
+class FloodFill {
+    /**
+     * 默认的颜色容差 （每个分量）
+     */
+    static final int DEFAULT_TOLERANCE = 32;
+    private static final int DEFAULT_STACK_CAPACITY = 4096;
+    private static final byte FILLED = (byte) 0xFF;
+    /**
+     * 栈里每个区间： x1, x2, y, dy
+     */
+    private static final int ENTRY_SIZE = 4;
+
+    private final int[] mStack;
+    private int mStackSize;
+    private boolean isOverflowed;
+
+    private int mTolerance = DEFAULT_TOLERANCE;
+
+    private int[] mPixels;
+    private byte[] mMask;
+    private int mWidth;
+    private int mHeight;
+    private int mSeedColor;
+
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+
+    FloodFill() {
+        this(DEFAULT_STACK_CAPACITY);
+    }
+
+    /**
+     * @param stackCapacity 栈里最多的区间数
+     */
+    FloodFill(int stackCapacity) {
+        mStack = new int[Math.max(2, stackCapacity) * ENTRY_SIZE];
+    }
+
+    /**
+     * @param tolerance 每个分量 （包括透明度） 和起点颜色的最大差值， 0 - 255
+     */
+    void setTolerance(int tolerance) {
+        mTolerance = tolerance;
+    }
+
+    int getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * 从 (x, y) 开始填充和它颜色相近的连通区域 （4 邻域）
+     * 起点是完全透明的像素时什么都不做
+     *
+     * @param pixels 非预乘的 ARGB
+     * @param mask   和图片一样大， 每个像素一个字节， 填充的像素写成 255， 其余的保持不变
+     * @return 填充的像素数
+     */
+    int fill(int[] pixels, int width, int height, int x, int y, byte[] mask) {
+        mLeft = width;
+        mTop = height;
+        mRight = 0;
+        mBottom = 0;
+        if (x < 0 || y < 0 || x >= width || y >= height || (pixels[y * width + x] >>> 24) == 0) {
+            return 0;
+        }
+        mPixels = pixels;
+        mMask = mask;
+        mWidth = width;
+        mHeight = height;
+        mSeedColor = pixels[y * width + x];
+        mStackSize = 0;
+        isOverflowed = false;
+
+        int count = scan(x, y, 1) + scan(x, y - 1, -1);
+        while (isOverflowed) {
+            isOverflowed = false;
+            count += rescan();
+        }
+        mPixels = null;
+        mMask = null;
+        return count;
+    }
+
+    /**
+     * 上一次填充区域的外接矩形 [left, right) x [top, bottom)
+     */
+    int getLeft() {
+        return mLeft;
+    }
+
+    int getTop() {
+        return mTop;
+    }
+
+    int getRight() {
+        return mRight;
+    }
+
+    int getBottom() {
+        return mBottom;
+    }
+
+    /**
+     * 把蒙版中外接矩形范围内填充的部分按行写成一笔， 每个区间两个点： (左, 上) (右, 下)
+     * 这样缩放之后仍然是准确的矩形， 重放的时候也不需要再重新填充
+     */
+    void writeSpans(byte[] mask, int width, StrokeLog log) {
+        for (int y = mTop; y < mBottom; y++) {
+            final int row = y * width;
+            int x = mLeft;
+            while (x < mRight) {
+                while (x < mRight && mask[row + x] != FILLED) {
+                    x++;
+                }
+                if (x == mRight) {
+                    break;
+                }
+                final int start = x;
+                while (x < mRight && mask[row + x] == FILLED) {
+                    x++;
+                }
+                log.addPoint(start, y);
+                log.addPoint(x, y + 1);
+            }
+        }
+    }
+
+    /**
+     * 从 (x, y) 所在的区间开始， 处理栈清空为止
+     */
+    private int scan(int x, int y, int dy) {
+        push(x, x, y, dy);
+        int count = 0;
+        while (mStackSize > 0) {
+            mStackSize -= ENTRY_SIZE;
+            int x1 = mStack[mStackSize];
+            final int x2 = mStack[mStackSize + 1];
+            final int row = mStack[mStackSize + 2];
+            final int direction = mStack[mStackSize + 3];
+
+            int left = x1;
+            if (isInside(left, row)) {
+                // 向左延伸
+                while (isInside(left - 1, row)) {
+                    left--;
+                }
+                for (int i = left; i < x1; i++) {
+                    set(i, row);
+                    count++;
+                }
+                if (left < x1) {
+                    // 向左伸出去的部分在反方向上也可能连着别的区域
+                    push(left, x1 - 1, row - direction, -direction);
+                }
+            }
+            while (x1 <= x2) {
+                while (isInside(x1, row)) {
+                    set(x1, row);
+                    count++;
+                    x1++;
+                }
+                if (x1 > left) {
+                    push(left, x1 - 1, row + direction, direction);
+                }
+                if (x1 - 1 > x2) {
+                    // 向右伸出去的部分
+                    push(x2 + 1, x1 - 1, row - direction, -direction);
+                }
+                x1++;
+                while (x1 < x2 && !isInside(x1, row)) {
+                    x1++;
+                }
+                left = x1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 栈溢出之后的补救： 找到已经填充的像素上下还能填充的像素， 从那里继续
+     */
+    private int rescan() {
+        int count = 0;
+        for (int y = mTop; y < mBottom; y++) {
+            final int row = y * mWidth;
+            for (int x = mLeft; x < mRight; x++) {
+                if (mMask[row + x] != FILLED) {
+                    continue;
+                }
+                if (isInside(x, y - 1)) {
+                    count += scan(x, y - 1, -1);
+                }
+                if (isInside(x, y + 1)) {
+                    count += scan(x, y + 1, 1);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void push(int x1, int x2, int y, int dy) {
+        if (y < 0 || y >= mHeight) {
+            return;
+        }
+        if (mStackSize == mStack.length) {
+            isOverflowed = true;
+            return;
+        }
+        mStack[mStackSize] = x1;
+        mStack[mStackSize + 1] = x2;
+        mStack[mStackSize + 2] = y;
+        mStack[mStackSize + 3] = dy;
+        mStackSize += ENTRY_SIZE;
+    }
+
+    private boolean isInside(int x, int y) {
+        if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+            return false;
+        }
+        final int index = y * mWidth + x;
+        return mMask[index] != FILLED && isSimilar(mPixels[index]);
+    }
+
+    private boolean isSimilar(int color) {
+        final int seed = mSeedColor;
+        return Math.abs((color >>> 24) - (seed >>> 24)) <= mTolerance
+                && Math.abs(((color >> 16) & 0xFF) - ((seed >> 16) & 0xFF)) <= mTolerance
+                && Math.abs(((color >> 8) & 0xFF) - ((seed >> 8) & 0xFF)) <= mTolerance
+                && Math.abs((color & 0xFF) - (seed & 0xFF)) <= mTolerance;
+    }
+
+    private void set(int x, int y) {
+        mMask[y * mWidth + x] = FILLED;
+        if (x < mLeft) {
+            mLeft = x;
+        }
+        if (x >= mRight) {
+            mRight = x + 1;
+        }
+        if (y < mTop) {
+            mTop = y;
+        }
+        if (y >= mBottom) {
+            mBottom = y + 1;
+        }
+    }
+}
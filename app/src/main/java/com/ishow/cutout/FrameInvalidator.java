@@ -0,0 +1,86 @@
+package com.ishow.cutout;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 按帧合并的局部刷新
+ * <p>
+ * 一帧之内的所有脏区域合并成一个矩形， 在下一个 vsync 的时候只调用一次 invalidate，
+ * 触摸事件再频繁每帧也最多重画一次。 视图是软件层， 重画的时候画布会被裁剪到这个矩形，
+ * 不相交的绘制 （棋盘格、 整张图片、 放大镜） 大部分都会被跳过。
+ * 矩阵变化之类影响整个视图的时候用 {@link #invalidateAll()}。
+ * 只能在主线程调用。
+ */
+class FrameInvalidator implements Choreographer.FrameCallback {
+    private final View mView;
+    private final Rect mDirty;
+    private boolean isFullDirty;
+    private boolean isScheduled;
+
+    FrameInvalidator(View view) {
+        mView = view;
+        mDirty = new Rect();
+    }
+
+    /**
+     * 标记一块脏区域 （视图坐标）， 向外取整
+     */
+    void invalidate(float left, float top, float right, float bottom) {
+        if (isFullDirty || left >= right || top >= bottom) {
+            schedule();
+            return;
+        }
+        mDirty.union((int) Math.floor(left), (int) Math.floor(top), (int) Math.ceil(right), (int) Math.ceil(bottom));
+        schedule();
+    }
+
+    void invalidate(RectF rect) {
+        invalidate(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    /**
+     * 整个视图都需要重画
+     */
+    void invalidateAll() {
+        isFullDirty = true;
+        schedule();
+    }
+
+    /**
+     * 取消还没有执行的刷新， 视图离开窗口的时候调用
+     */
+    void cancel() {
+        if (isScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        reset();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (isFullDirty) {
+            mView.invalidate();
+        } else if (!mDirty.isEmpty()) {
+            mView.invalidate(mDirty);
+        }
+        reset();
+    }
+
+    private void schedule() {
+        if (isScheduled) {
+            return;
+        }
+        isScheduled = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void reset() {
+        isScheduled = false;
+        isFullDirty = false;
+        mDirty.setEmpty();
+    }
+}
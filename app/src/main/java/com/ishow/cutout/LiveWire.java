@@ -0,0 +1,265 @@
+package com.ishow.cutout;
+
+import java.util.Arrays;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 磁性套索的最短路径搜索 （intelligent scissors / live-wire）
+ * <p>
+ * 以锚点为中心的一个正方形窗口里， 在 8 邻域的图上用 Dijkstra 求锚点到各点的最小代价路径，
+ * 经过一个像素的代价是它的边缘代价加上一个长度惩罚， 斜着走乘以 √2。
+ * <p>
+ * 代价都是不大的整数， 优先队列用环形的桶 （Dial 算法）， 入队、 出队和更新都是常数时间， 不分配内存。
+ * 搜索是增量的： 锚点不变的时候已经确定的最短路径一直保留， 手指移动之后只继续扩展到新的目标被确定为止，
+ * 所以每帧的开销只和新增的区域有关， 整个窗口最多也只展开一次。
+ */
+class LiveWire {
+    /**
+     * 每走一步的长度惩罚， 代价全是 0 的时候也会倾向于走直线
+     */
+    private static final int LENGTH_COST = 8;
+    /**
+     * √2 的定点数 （/ 128）
+     */
+    private static final int DIAGONAL = 181;
+    /**
+     * 单步的最大代价加一， 环形桶的数量必须大于它
+     */
+    private static final int RING = 512;
+    private static final int RING_MASK = RING - 1;
+
+    private static final byte STATE_NEW = 0;
+    private static final byte STATE_QUEUED = 1;
+    private static final byte STATE_SETTLED = 2;
+
+    private static final int[] NEIGHBOR_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] NEIGHBOR_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    private final int mRadius;
+    private final int mSize;
+
+    private byte[] mCost;
+    private int mCostWidth;
+    private int mCostHeight;
+
+    /**
+     * 窗口在代价图中的位置和大小 （已经裁到代价图内）
+     */
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+    private int mSeedX;
+    private int mSeedY;
+    private boolean isSeeded;
+
+    private final int[] mDistance;
+    /**
+     * 最短路径上的前一个节点在窗口里的下标
+     */
+    private final int[] mParent;
+    private final byte[] mState;
+    /**
+     * 每个桶是一个双向链表
+     */
+    private final int[] mNext;
+    private final int[] mPrevious;
+    private final int[] mBucketHead;
+    private int mQueued;
+    private int mCursor;
+
+    private int[] mPath;
+    private int mPathCount;
+
+    /**
+     * @param radius 窗口的半径， 窗口边长是 radius * 2 + 1
+     */
+    LiveWire(int radius) {
+        mRadius = radius;
+        mSize = radius * 2 + 1;
+        final int nodes = mSize * mSize;
+        mDistance = new int[nodes];
+        mParent = new int[nodes];
+        mState = new byte[nodes];
+        mNext = new int[nodes];
+        mPrevious = new int[nodes];
+        mBucketHead = new int[RING];
+        mPath = new int[256];
+    }
+
+    int getRadius() {
+        return mRadius;
+    }
+
+    /**
+     * 设置代价图， 之前的搜索结果失效
+     */
+    void setCost(byte[] cost, int width, int height) {
+        mCost = cost;
+        mCostWidth = width;
+        mCostHeight = height;
+        isSeeded = false;
+    }
+
+    /**
+     * 设置锚点， 窗口以锚点为中心
+     */
+    void setSeed(int x, int y) {
+        mSeedX = clamp(x, 0, mCostWidth - 1);
+        mSeedY = clamp(y, 0, mCostHeight - 1);
+        mLeft = clamp(mSeedX - mRadius, 0, Math.max(0, mCostWidth - mSize));
+        mTop = clamp(mSeedY - mRadius, 0, Math.max(0, mCostHeight - mSize));
+        mWidth = Math.min(mSize, mCostWidth);
+        mHeight = Math.min(mSize, mCostHeight);
+
+        final int nodes = mWidth * mHeight;
+        Arrays.fill(mState, 0, nodes, STATE_NEW);
+        Arrays.fill(mBucketHead, -1);
+        mQueued = 0;
+        mCursor = 0;
+
+        final int seed = (mSeedY - mTop) * mWidth + (mSeedX - mLeft);
+        mDistance[seed] = 0;
+        mParent[seed] = -1;
+        enqueue(seed, 0);
+        isSeeded = true;
+    }
+
+    boolean isSeeded() {
+        return isSeeded;
+    }
+
+    int getSeedX() {
+        return mSeedX;
+    }
+
+    int getSeedY() {
+        return mSeedY;
+    }
+
+    /**
+     * 点是否在当前窗口里
+     */
+    boolean contains(int x, int y) {
+        return isSeeded && x >= mLeft && x < mLeft + mWidth && y >= mTop && y < mTop + mHeight;
+    }
+
+    /**
+     * 求锚点到 (x, y) 的最短路径， 点必须在窗口里
+     * 结果从锚点开始， 通过 {@link #getPathX(int)} {@link #getPathY(int)} 获取
+     *
+     * @return 路径的点数， 包括锚点和终点
+     */
+    int findPath(int x, int y) {
+        if (!contains(x, y)) {
+            mPathCount = 0;
+            return 0;
+        }
+        final int target = (y - mTop) * mWidth + (x - mLeft);
+        expandUntil(target);
+
+        int count = 0;
+        for (int node = target; node != -1; node = mParent[node]) {
+            count++;
+        }
+        if (mPath.length < count * 2) {
+            mPath = new int[Math.max(count * 2, mPath.length * 2)];
+        }
+        int index = count;
+        for (int node = target; node != -1; node = mParent[node]) {
+            index--;
+            mPath[index * 2] = node % mWidth + mLeft;
+            mPath[index * 2 + 1] = node / mWidth + mTop;
+        }
+        mPathCount = count;
+        return count;
+    }
+
+    int getPathCount() {
+        return mPathCount;
+    }
+
+    int getPathX(int index) {
+        return mPath[index * 2];
+    }
+
+    int getPathY(int index) {
+        return mPath[index * 2 + 1];
+    }
+
+    /**
+     * 继续 Dijkstra， 直到 target 的最短路径确定或者窗口全部展开
+     */
+    private void expandUntil(int target) {
+        while (mState[target] != STATE_SETTLED && mQueued > 0) {
+            while (mBucketHead[mCursor & RING_MASK] == -1) {
+                mCursor++;
+            }
+            final int node = mBucketHead[mCursor & RING_MASK];
+            unlink(node, mCursor);
+            mState[node] = STATE_SETTLED;
+
+            final int nodeX = node % mWidth;
+            final int nodeY = node / mWidth;
+            final int distance = mDistance[node];
+            for (int i = 0; i < NEIGHBOR_X.length; i++) {
+                final int nx = nodeX + NEIGHBOR_X[i];
+                final int ny = nodeY + NEIGHBOR_Y[i];
+                if (nx < 0 || ny < 0 || nx >= mWidth || ny >= mHeight) {
+                    continue;
+                }
+                final int neighbor = ny * mWidth + nx;
+                final byte state = mState[neighbor];
+                if (state == STATE_SETTLED) {
+                    continue;
+                }
+                int step = (mCost[(ny + mTop) * mCostWidth + nx + mLeft] & 0xFF) + LENGTH_COST;
+                if (NEIGHBOR_X[i] != 0 && NEIGHBOR_Y[i] != 0) {
+                    step = step * DIAGONAL >> 7;
+                }
+                final int next = distance + step;
+                if (state == STATE_NEW) {
+                    mDistance[neighbor] = next;
+                    mParent[neighbor] = node;
+                    enqueue(neighbor, next);
+                } else if (next < mDistance[neighbor]) {
+                    unlink(neighbor, mDistance[neighbor]);
+                    mDistance[neighbor] = next;
+                    mParent[neighbor] = node;
+                    enqueue(neighbor, next);
+                }
+            }
+        }
+    }
+
+    private void enqueue(int node, int distance) {
+        final int bucket = distance & RING_MASK;
+        final int head = mBucketHead[bucket];
+        mNext[node] = head;
+        mPrevious[node] = -1;
+        if (head != -1) {
+            mPrevious[head] = node;
+        }
+        mBucketHead[bucket] = node;
+        mState[node] = STATE_QUEUED;
+        mQueued++;
+    }
+
+    private void unlink(int node, int distance) {
+        final int next = mNext[node];
+        final int previous = mPrevious[node];
+        if (previous == -1) {
+            mBucketHead[distance & RING_MASK] = next;
+        } else {
+            mNext[previous] = next;
+        }
+        if (next != -1) {
+            mPrevious[next] = previous;
+        }
+        mQueued--;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+}
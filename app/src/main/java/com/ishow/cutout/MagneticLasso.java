@@ -0,0 +1,223 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 磁性套索
+ * <p>
+ * 每张图片在后台线程计算一次 {@link EdgeCostPyramid}， 之后一直缓存到换图片。
+ * 拖动的时候在锚点附近的窗口里用 {@link LiveWire} 求到手指的最短路径， 轨迹会吸附到图片的边缘上。
+ * 图片缩小显示的时候手指移动一点对应很多图片像素， 这时在金字塔里更粗的一层搜索， 窗口的节点数不变。
+ * 所有坐标都是图片坐标。
+ */
+class MagneticLasso {
+    private static final String TAG = "MagneticLasso";
+    private static final int PYRAMID_LEVELS = 4;
+    /**
+     * 搜索窗口的半径 （所在层的像素）
+     */
+    private static final int WINDOW_RADIUS = 128;
+
+    /**
+     * 计算金字塔的线程， close 之后再用的时候重新创建
+     */
+    private ExecutorService mBuilder;
+    private final ParallelBands mBands;
+    private final LiveWire mLiveWire;
+
+    private volatile EdgeCostPyramid mPyramid;
+    /**
+     * 每次换图片加一， 旧图片的计算结果直接丢掉
+     */
+    private volatile int mGeneration;
+    private boolean isBuilding;
+    private int mPhotoWidth;
+    private int mPhotoHeight;
+
+    private int mLevel;
+    private boolean isTracing;
+
+    MagneticLasso(ParallelBands bands) {
+        mBands = bands;
+        mLiveWire = new LiveWire(WINDOW_RADIUS);
+    }
+
+    /**
+     * 开始计算图片的代价金字塔， 已经算过或者正在算的时候什么都不做
+     * 像素在调用线程复制， 之后图片被回收也没关系
+     */
+    void prepare(Bitmap photo) {
+        if (photo == null || photo.isRecycled()) {
+            return;
+        }
+        final int width = photo.getWidth();
+        final int height = photo.getHeight();
+        if (width == mPhotoWidth && height == mPhotoHeight && (mPyramid != null || isBuilding)) {
+            return;
+        }
+        reset();
+        mPhotoWidth = width;
+        mPhotoHeight = height;
+        isBuilding = true;
+
+        final int[] pixels = new int[width * height];
+        photo.getPixels(pixels, 0, width, 0, 0, width, height);
+        final int generation = mGeneration;
+        getBuilder().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+                try {
+                    EdgeCostPyramid pyramid = EdgeCostPyramid.build(pixels, width, height, PYRAMID_LEVELS, mBands);
+                    if (generation == mGeneration) {
+                        mPyramid = pyramid;
+                    }
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "prepare: out of memory", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 换图片的时候调用， 丢掉缓存的金字塔
+     */
+    void reset() {
+        mGeneration++;
+        mPyramid = null;
+        isBuilding = false;
+        isTracing = false;
+        mPhotoWidth = 0;
+        mPhotoHeight = 0;
+    }
+
+    /**
+     * 不再使用的时候调用， 丢掉金字塔并让线程退出
+     * 之后再 {@link #prepare(Bitmap)} 会重新计算
+     */
+    void close() {
+        reset();
+        if (mBuilder != null) {
+            mBuilder.shutdownNow();
+            mBuilder = null;
+        }
+    }
+
+    private ExecutorService getBuilder() {
+        if (mBuilder == null) {
+            mBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return mBuilder;
+    }
+
+    boolean isReady() {
+        return mPyramid != null;
+    }
+
+    /**
+     * 是否正在吸附， 金字塔还没算好的时候按普通的抠图处理
+     */
+    boolean isTracing() {
+        return isTracing;
+    }
+
+    long getByteCount() {
+        EdgeCostPyramid pyramid = mPyramid;
+        return pyramid == null ? 0 : pyramid.getByteCount();
+    }
+
+    /**
+     * 从 (x, y) 开始吸附
+     *
+     * @param reach 希望窗口能覆盖的半径 （图片像素）， 用来选择金字塔的层
+     * @return 金字塔还没有算好的时候返回 false
+     */
+    boolean begin(float x, float y, float reach) {
+        EdgeCostPyramid pyramid = mPyramid;
+        if (pyramid == null) {
+            isTracing = false;
+            return false;
+        }
+        int level = 0;
+        while (level < pyramid.getLevelCount() - 1 && (reach / (1 << level)) > WINDOW_RADIUS) {
+            level++;
+        }
+        if (!isTracing || level != mLevel) {
+            mLevel = level;
+            mLiveWire.setCost(pyramid.getCost(level), pyramid.getWidth(level), pyramid.getHeight(level));
+        }
+        mLiveWire.setSeed(toLevel(x), toLevel(y));
+        isTracing = true;
+        return true;
+    }
+
+    /**
+     * 从上一次路径的终点重新开始， 锚点之前的路径已经被调用方固定下来
+     */
+    void beginAtEnd() {
+        final int count = mLiveWire.getPathCount();
+        if (count == 0) {
+            return;
+        }
+        mLiveWire.setSeed(mLiveWire.getPathX(count - 1), mLiveWire.getPathY(count - 1));
+    }
+
+    /**
+     * 求锚点到 (x, y) 吸附到边缘的路径
+     *
+     * @return (x, y) 超出了搜索窗口的时候返回 false， 上一次的路径保持不变
+     */
+    boolean trace(float x, float y) {
+        if (!isTracing) {
+            return false;
+        }
+        final int levelX = toLevel(x);
+        final int levelY = toLevel(y);
+        if (!mLiveWire.contains(levelX, levelY)) {
+            return false;
+        }
+        mLiveWire.findPath(levelX, levelY);
+        return true;
+    }
+
+    void end() {
+        isTracing = false;
+    }
+
+    /**
+     * 路径的点数， 第一个点是锚点
+     */
+    int getPointCount() {
+        return isTracing ? mLiveWire.getPathCount() : 0;
+    }
+
+    /**
+     * 路径上的点， 取所在层像素的中心换算回图片坐标
+     */
+    float getX(int index) {
+        return (mLiveWire.getPathX(index) + 0.5F) * (1 << mLevel);
+    }
+
+    float getY(int index) {
+        return (mLiveWire.getPathY(index) + 0.5F) * (1 << mLevel);
+    }
+
+    private int toLevel(float value) {
+        return (int) Math.floor(value / (1 << mLevel));
+    }
+}
@@ -0,0 +1,71 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 多核的蒙版合成
+ * <p>
+ * 代替 Canvas + PorterDuffXfermode 的单线程软件合成： 图片按行带分给各个核，
+ * 每个核一次读几十行到 int 数组里， 用 {@link PixelKernels} 合成之后写回去，
+ * 额外的内存只和行带的大小有关。
+ */
+class MaskCompositor {
+    /**
+     * 每次读写的行数
+     */
+    private static final int CHUNK_ROWS = 64;
+
+    private final ParallelBands mBands;
+
+    MaskCompositor(ParallelBands bands) {
+        mBands = bands;
+    }
+
+    /**
+     * 按蒙版合成， target 必须是可写的
+     *
+     * @param mask       每个像素一个字节的覆盖度
+     * @param maskStride 蒙版每行的字节数
+     * @param maskLeft   target 的 (0, 0) 在蒙版中的位置
+     * @param maskTop    target 的 (0, 0) 在蒙版中的位置
+     * @param out        true 为 DST_OUT， false 为 DST_IN
+     */
+    void apply(Bitmap target, byte[] mask, int maskStride, int maskLeft, int maskTop, boolean out) {
+        apply(target, 0, 0, target.getWidth(), target.getHeight(), mask, maskStride, maskLeft, maskTop, out);
+    }
+
+    /**
+     * 只合成 target 里 bounds 范围内的部分， 范围外的像素不会被读写
+     *
+     * @param bounds 合成的范围 （target 的坐标）
+     */
+    void apply(Bitmap target, Rect bounds, byte[] mask, int maskStride, int maskLeft, int maskTop, boolean out) {
+        apply(target, bounds.left, bounds.top, bounds.right, bounds.bottom, mask, maskStride, maskLeft, maskTop, out);
+    }
+
+    private void apply(final Bitmap target, int left, int top, int right, int bottom,
+                       final byte[] mask, final int maskStride, final int maskLeft, final int maskTop, final boolean out) {
+        final int x = Math.max(0, left);
+        final int offsetY = Math.max(0, top);
+        final int width = Math.min(target.getWidth(), right) - x;
+        final int height = Math.min(target.getHeight(), bottom) - offsetY;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        mBands.run(height, CHUNK_ROWS, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                int[] pixels = new int[width * Math.min(CHUNK_ROWS, end - start)];
+                for (int y = offsetY + start; y < offsetY + end; y += CHUNK_ROWS) {
+                    final int rows = Math.min(CHUNK_ROWS, offsetY + end - y);
+                    target.getPixels(pixels, 0, width, x, y, width, rows);
+                    PixelKernels.applyMask(pixels, 0, width, mask, (y + maskTop) * maskStride + x + maskLeft, maskStride,
+                            width, rows, out);
+                    target.setPixels(pixels, 0, width, x, y, width, rows);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,221 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 蒙版羽化
+ * <p>
+ * 用三次盒子模糊近似高斯模糊， 盒子模糊用滑动窗口求和， 每个像素的开销和半径无关。
+ * 先按行带并行做水平方向， 再按列带并行做垂直方向。
+ * 半径和 {@link android.graphics.BlurMaskFilter} 一致， 换算成 sigma 的方式也和 Skia 一样。
+ */
+class MaskFeather {
+    private static final int PASSES = 3;
+    /**
+     * 每段最少的行数 / 列数
+     */
+    private static final int MIN_BAND = 32;
+
+    private final ParallelBands mBands;
+
+    MaskFeather(ParallelBands bands) {
+        mBands = bands;
+    }
+
+    /**
+     * 和 Skia 的 ConvertRadiusToSigma 一致
+     */
+    static float radiusToSigma(float radius) {
+        return radius > 0 ? 0.57735F * radius + 0.5F : 0;
+    }
+
+    /**
+     * 三次盒子模糊每次的半径
+     */
+    static int[] boxRadii(float radius) {
+        final float sigma = radiusToSigma(radius);
+        int[] radii = new int[PASSES];
+        if (sigma <= 0.5F) {
+            return radii;
+        }
+        // 让三个盒子的方差之和等于 sigma^2
+        final double ideal = Math.sqrt(12 * sigma * sigma / PASSES + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        final int upper = lower + 2;
+        final long lowerCount = Math.round((12 * sigma * sigma - PASSES * lower * lower - 4 * PASSES * lower - 3 * PASSES)
+                / (-4.0 * lower - 4));
+        for (int i = 0; i < PASSES; i++) {
+            radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * 羽化能影响到的距离， 蒙版四周至少要留出这么多才不会在边缘被截断
+     */
+    static int getExtent(float radius) {
+        int extent = 0;
+        for (int r : boxRadii(radius)) {
+            extent += r;
+        }
+        return extent;
+    }
+
+    /**
+     * 原地羽化
+     *
+     * @param pixels 每个像素一个字节的覆盖度
+     * @param stride 每行的字节数
+     * @param radius 和 BlurMaskFilter 相同含义的半径
+     */
+    void blur(final byte[] pixels, final int width, final int height, final int stride, float radius) {
+        final int[] radii = boxRadii(radius);
+        if (radii[PASSES - 1] == 0) {
+            return;
+        }
+
+        mBands.run(height, MIN_BAND, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                blurRows(pixels, width, stride, start, end, radii);
+            }
+        });
+
+        final byte[] temp = new byte[stride * height];
+        mBands.run(width, MIN_BAND, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                blurColumns(pixels, temp, height, stride, start, end, radii);
+            }
+        });
+    }
+
+    /**
+     * 水平方向， 每行复制到 int 数组来回做三次
+     */
+    private static void blurRows(byte[] pixels, int width, int stride, int startRow, int endRow, int[] radii) {
+        int[] a = new int[width];
+        int[] b = new int[width];
+        for (int y = startRow; y < endRow; y++) {
+            final int offset = y * stride;
+            boolean empty = true;
+            for (int x = 0; x < width; x++) {
+                a[x] = pixels[offset + x] & 0xFF;
+                empty &= a[x] == 0;
+            }
+            if (empty) {
+                continue;
+            }
+            for (int pass = 0; pass < PASSES; pass++) {
+                boxLine(a, b, width, radii[pass]);
+                int[] swap = a;
+                a = b;
+                b = swap;
+            }
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = (byte) a[x];
+            }
+        }
+    }
+
+    /**
+     * 一维盒子模糊， 边界外当作 0
+     */
+    private static void boxLine(int[] src, int[] dst, int count, int radius) {
+        final int size = radius * 2 + 1;
+        final long reciprocal = reciprocal(size);
+        int sum = 0;
+        for (int i = 0; i <= radius && i < count; i++) {
+            sum += src[i];
+        }
+        for (int x = 0; x < count; x++) {
+            dst[x] = divide(sum, size, reciprocal);
+            final int add = x + radius + 1;
+            if (add < count) {
+                sum += src[add];
+            }
+            final int remove = x - radius;
+            if (remove >= 0) {
+                sum -= src[remove];
+            }
+        }
+    }
+
+    /**
+     * 垂直方向， 按行扫描， 每列一个累加值， 访问内存是连续的
+     * 三次在 pixels 和 temp 之间来回， 最后结果回到 pixels
+     */
+    private static void blurColumns(byte[] pixels, byte[] temp, int height, int stride, int startX, int endX, int[] radii) {
+        final int columns = endX - startX;
+        final int[] sums = new int[columns];
+        byte[] src = pixels;
+        byte[] dst = temp;
+        for (int pass = 0; pass < PASSES; pass++) {
+            final int radius = radii[pass];
+            final int size = radius * 2 + 1;
+            final long reciprocal = reciprocal(size);
+            for (int i = 0; i < columns; i++) {
+                sums[i] = 0;
+            }
+            for (int y = 0; y <= radius && y < height; y++) {
+                final int offset = y * stride + startX;
+                for (int i = 0; i < columns; i++) {
+                    sums[i] += src[offset + i] & 0xFF;
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                final int offset = y * stride + startX;
+                for (int i = 0; i < columns; i++) {
+                    dst[offset + i] = (byte) divide(sums[i], size, reciprocal);
+                }
+                final int add = y + radius + 1;
+                if (add < height) {
+                    final int addOffset = add * stride + startX;
+                    for (int i = 0; i < columns; i++) {
+                        sums[i] += src[addOffset + i] & 0xFF;
+                    }
+                }
+                final int remove = y - radius;
+                if (remove >= 0) {
+                    final int removeOffset = remove * stride + startX;
+                    for (int i = 0; i < columns; i++) {
+                        sums[i] -= src[removeOffset + i] & 0xFF;
+                    }
+                }
+            }
+            byte[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        // 三次之后结果在 temp 里
+        if (src != pixels) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(src, y * stride + startX, pixels, y * stride + startX, columns);
+            }
+        }
+    }
+
+    /**
+     * {@link #divide(int, int, long)} 用的倒数
+     */
+    private static long reciprocal(int size) {
+        return (1L << 32) / (size * 2);
+    }
+
+    /**
+     * sum / size 四舍五入
+     * 用乘法代替除法： 倒数向下取整， 商最多少 1， 补一次就是精确值。
+     * 覆盖满的地方 sum = 255 * size， 半径再大结果也还是 255
+     */
+    private static int divide(int sum, int size, long reciprocal) {
+        final int divisor = size * 2;
+        final long n = sum * 2L + size;
+        long quotient = (n * reciprocal) >>> 32;
+        if (n - quotient * divisor >= divisor) {
+            quotient++;
+        }
+        return (int) quotient;
+    }
+}
@@ -0,0 +1,157 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Created by yuhaiyang on 2017/10/16.
+ * 蒙版
+ * <p>
+ * 抠图轨迹、 闭合路径这些数据只需要覆盖度， 用 ALPHA_8 存储， 内存只有 ARGB_8888 的四分之一。
+ * 显示的时候用画笔的颜色着色。
+ * <p>
+ * 需要羽化的时候四周可以留出一圈边距， 画在图片外面的部分也参与模糊， 边缘不会被截断。
+ * 边距对调用方是透明的： 画布和显示的位置都已经换算好了。
+ */
+class MaskLayer {
+    private static final PorterDuffXfermode MODE_IN = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+    private static final PorterDuffXfermode MODE_OUT = new PorterDuffXfermode(PorterDuff.Mode.DST_OUT);
+
+    private final Bitmap mBitmap;
+    private final Canvas mCanvas;
+    private final Paint mPaint;
+    private final int mMargin;
+    /**
+     * 读出来的覆盖度， 填充、 羽化、 合成共用一份
+     */
+    private byte[] mPixels;
+
+    MaskLayer(int width, int height) {
+        this(width, height, 0);
+    }
+
+    /**
+     * @param margin 四周留出的边距
+     */
+    MaskLayer(int width, int height, int margin) {
+        mMargin = margin;
+        mBitmap = BitmapPool.getDefault().get(width + margin * 2, height + margin * 2, Bitmap.Config.ALPHA_8);
+        mCanvas = new Canvas(mBitmap);
+        mCanvas.translate(margin, margin);
+        mPaint = new Paint();
+        mPaint.setDither(true);
+        mPaint.setAntiAlias(true);
+    }
+
+    int getWidth() {
+        return mBitmap.getWidth() - mMargin * 2;
+    }
+
+    int getHeight() {
+        return mBitmap.getHeight() - mMargin * 2;
+    }
+
+    /**
+     * 在蒙版上作画的画布， 只有透明度会被保留
+     */
+    Canvas getCanvas() {
+        return mCanvas;
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    long getByteCount() {
+        return mBitmap.isRecycled() ? 0 : mBitmap.getByteCount();
+    }
+
+    void clear() {
+        mBitmap.eraseColor(Color.TRANSPARENT);
+    }
+
+    /**
+     * 按 paint 的颜色显示蒙版
+     */
+    void draw(Canvas canvas, float left, float top, Paint paint) {
+        canvas.drawBitmap(mBitmap, left - mMargin, top - mMargin, paint);
+    }
+
+    /**
+     * 只保留 target 中蒙版覆盖的部分 (DST_IN)
+     */
+    void applyIn(Canvas target, float left, float top) {
+        apply(target, left, top, MODE_IN);
+    }
+
+    /**
+     * 擦掉 target 中蒙版覆盖的部分 (DST_OUT)
+     */
+    void applyOut(Canvas target, float left, float top) {
+        apply(target, left, top, MODE_OUT);
+    }
+
+    /**
+     * 羽化， 包括边距
+     *
+     * @param radius 和 BlurMaskFilter 相同含义的半径
+     */
+    void feather(MaskFeather feather, float radius) {
+        final byte[] pixels = readPixels();
+        feather.blur(pixels, mBitmap.getWidth(), mBitmap.getHeight(), mBitmap.getRowBytes(), radius);
+        mBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+    }
+
+    /**
+     * 用扫描线填充一笔闭合路径， 不经过 Canvas
+     * 点先按 x * scaleX + dx， y * scaleY + dy 换算到蒙版坐标， 边距里的部分也会填充
+     */
+    void fill(PolygonRasterizer rasterizer, StrokeLog log, int stroke, float scaleX, float scaleY, float dx, float dy) {
+        final byte[] pixels = readPixels();
+        rasterizer.setTransform(scaleX, scaleY, dx + mMargin, dy + mMargin);
+        rasterizer.fill(log.getPoints(), log.getPointOffset(stroke), log.getPointCount(stroke),
+                pixels, mBitmap.getWidth(), mBitmap.getHeight(), mBitmap.getRowBytes());
+        mBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+    }
+
+    /**
+     * 多核合成， 只保留 target 中蒙版覆盖的部分
+     */
+    void applyIn(MaskCompositor compositor, Bitmap target) {
+        compositor.apply(target, readPixels(), mBitmap.getRowBytes(), mMargin, mMargin, false);
+    }
+
+    /**
+     * 多核合成， 擦掉 target 中蒙版覆盖的部分
+     */
+    void applyOut(MaskCompositor compositor, Bitmap target) {
+        compositor.apply(target, readPixels(), mBitmap.getRowBytes(), mMargin, mMargin, true);
+    }
+
+    void recycle() {
+        mPixels = null;
+        mCanvas.setBitmap(null);
+        BitmapPool.getDefault().put(mBitmap);
+    }
+
+    private byte[] readPixels() {
+        final int size = mBitmap.getRowBytes() * mBitmap.getHeight();
+        if (mPixels == null || mPixels.length != size) {
+            mPixels = new byte[size];
+        }
+        mBitmap.copyPixelsToBuffer(ByteBuffer.wrap(mPixels));
+        return mPixels;
+    }
+
+    private void apply(Canvas target, float left, float top, PorterDuffXfermode mode) {
+        mPaint.setXfermode(mode);
+        target.drawBitmap(mBitmap, left - mMargin, top - mMargin, mPaint);
+        mPaint.setXfermode(null);
+    }
+}
@@ -0,0 +1,162 @@
+package com.ishow.cutout;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 图片内存的统一管理
+ * <p>
+ * 抠图控件持有的每一类图片都登记在这里， 按可以释放的程度分级：
+ * 复用池和原图分块随时可以丢； 放大镜的缓存用到的时候重新创建；
+ * 回退记录和记录图片丢掉之后回退时从磁盘重新加载再重放笔画； 编辑中的图片和蒙版只计数不释放。
+ * 总量超过上限或者系统通知内存紧张的时候从最不重要的一级开始释放。
+ * <p>
+ * 只在主线程使用。
+ */
+class MemoryGovernor implements ComponentCallbacks2 {
+    private static final String TAG = "MemoryGovernor";
+    /**
+     * 直接丢弃， 之后按需重建
+     */
+    static final int LEVEL_CACHE = 0;
+    /**
+     * 显示用的缓存， 下次显示的时候重新创建
+     */
+    static final int LEVEL_BUFFER = 1;
+    /**
+     * 回退记录， 丢掉之后从磁盘重新加载
+     */
+    static final int LEVEL_HISTORY = 2;
+    /**
+     * 正在使用的图片， 只计数
+     */
+    static final int LEVEL_REQUIRED = 3;
+
+    private final List<Entry> mEntryList;
+    private long mMaxBytes;
+
+    MemoryGovernor(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mEntryList = new ArrayList<>();
+    }
+
+    /**
+     * 登记一类图片， 同一级里先登记的先释放
+     */
+    void register(int level, Consumer consumer) {
+        int index = mEntryList.size();
+        while (index > 0 && mEntryList.get(index - 1).level > level) {
+            index--;
+        }
+        mEntryList.add(index, new Entry(level, consumer));
+    }
+
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        check();
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 所有登记的图片占用的内存
+     */
+    long getByteCount() {
+        long bytes = 0;
+        for (Entry entry : mEntryList) {
+            bytes += entry.consumer.getByteCount();
+        }
+        return bytes;
+    }
+
+    /**
+     * 超过上限的时候从最低一级开始逐个释放， 直到回到上限以内， 正在使用的图片不会释放
+     */
+    void check() {
+        long bytes = getByteCount();
+        for (int i = 0; i < mEntryList.size() && bytes > mMaxBytes; i++) {
+            Entry entry = mEntryList.get(i);
+            if (entry.level >= LEVEL_REQUIRED) {
+                break;
+            }
+            final long before = entry.consumer.getByteCount();
+            if (before <= 0) {
+                continue;
+            }
+            entry.consumer.release();
+            bytes -= before - entry.consumer.getByteCount();
+        }
+        if (bytes > mMaxBytes) {
+            Log.i(TAG, "check: " + bytes + " bytes in use, over " + mMaxBytes);
+        }
+    }
+
+    /**
+     * 释放 level 以及更低级别的所有图片
+     */
+    void release(int level) {
+        for (Entry entry : mEntryList) {
+            if (entry.level > level || entry.level >= LEVEL_REQUIRED) {
+                break;
+            }
+            entry.consumer.release();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        switch (level) {
+            case TRIM_MEMORY_COMPLETE:
+            case TRIM_MEMORY_MODERATE:
+            case TRIM_MEMORY_BACKGROUND:
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                release(LEVEL_HISTORY);
+                break;
+            case TRIM_MEMORY_UI_HIDDEN:
+            case TRIM_MEMORY_RUNNING_LOW:
+                release(LEVEL_BUFFER);
+                break;
+            default:
+                release(LEVEL_CACHE);
+                break;
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        release(LEVEL_HISTORY);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * 一类图片
+     */
+    interface Consumer {
+        long getByteCount();
+
+        /**
+         * 释放能释放的部分， 正在进行中的操作需要的图片不能释放
+         */
+        void release();
+    }
+
+    private static class Entry {
+        private final int level;
+        private final Consumer consumer;
+
+        Entry(int level, Consumer consumer) {
+            this.level = level;
+            this.consumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.ishow.cutout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 按行或者按列分段并行
+ * <p>
+ * 把 [0, count) 分成和核数相同的几段， 调用线程自己处理最后一段， 其余的交给共享的线程池，
+ * 全部完成之后才返回。 线程空闲一段时间之后会退出， 不用的时候不占资源。
+ */
+class ParallelBands {
+    private static final String TAG = "ParallelBands";
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static ParallelBands sDefault;
+
+    private final int mThreadCount;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param threadCount 1 的时候直接在调用线程处理
+     */
+    ParallelBands(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+        if (mThreadCount == 1) {
+            mExecutor = null;
+            return;
+        }
+        final AtomicInteger index = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(mThreadCount - 1, mThreadCount - 1,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TAG + "-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 按核数共享的实例
+     */
+    static synchronized ParallelBands getDefault() {
+        if (sDefault == null) {
+            sDefault = new ParallelBands(Runtime.getRuntime().availableProcessors());
+        }
+        return sDefault;
+    }
+
+    int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * 分段执行， 所有段完成之后返回
+     *
+     * @param count   总数， 比如行数
+     * @param minBand 每段最少的数量， 太少的时候不值得切换线程
+     */
+    void run(int count, int minBand, final Band band) {
+        if (count <= 0) {
+            return;
+        }
+        final int bandCount = Math.max(1, Math.min(mThreadCount, count / Math.max(1, minBand)));
+        if (bandCount == 1) {
+            band.run(0, count);
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(bandCount - 1);
+        final RuntimeException[] error = new RuntimeException[1];
+        for (int i = 0; i < bandCount - 1; i++) {
+            final int start = count * i / bandCount;
+            final int end = count * (i + 1) / bandCount;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        band.run(start, end);
+                    } catch (RuntimeException e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        band.run(count * (bandCount - 1) / bandCount, count);
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+        synchronized (error) {
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+    }
+
+    interface Band {
+        /**
+         * 处理 [start, end)
+         */
+        void run(int start, int end);
+    }
+}
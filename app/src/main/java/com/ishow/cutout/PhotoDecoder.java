@@ -0,0 +1,136 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.os.Build;
+import android.util.Log;
+
+import com.ishow.common.utils.image.ImageUtils;
+
+/**
+ * Created by yuhaiyang on 2017/10/13.
+ * 图片解码
+ * <p>
+ * 先只读尺寸， 根据目标大小和内存上限算出 inSampleSize，
+ * 然后旋转和缩放在同一次 createBitmap 里完成， 峰值内存大约只有一张目标大小的图片。
+ * 解码的时候尽量通过 inBitmap 复用 {@link BitmapPool} 里的内存。
+ */
+final class PhotoDecoder {
+    private static final String TAG = "PhotoDecoder";
+    /**
+     * ARGB_8888 每个像素的字节数
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private PhotoDecoder() {
+    }
+
+    /**
+     * 解码图片
+     *
+     * @param path      图片路径
+     * @param reqWidth  目标宽度， 图片会等比缩放到这个范围之内
+     * @param reqHeight 目标高度
+     * @param maxBytes  解码出来的图片最多占用的内存
+     * @return 已经处理过旋转的图片， 失败返回 null
+     */
+    static Bitmap decode(String path, int reqWidth, int reqHeight, long maxBytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "decode: can not decode " + path);
+            return null;
+        }
+
+        final int degree = ImageUtils.getExifOrientation(path);
+        final boolean swap = degree % 180 != 0;
+        final int width = swap ? options.outHeight : options.outWidth;
+        final int height = swap ? options.outWidth : options.outHeight;
+
+        final float scale = computeScale(width, height, reqWidth, reqHeight, maxBytes);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(scale);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        Bitmap sampled = decodeReusing(path, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        // 采样之后还需要的缩放， 和旋转一起做
+        final int sampledWidth = swap ? sampled.getHeight() : sampled.getWidth();
+        final int sampledHeight = swap ? sampled.getWidth() : sampled.getHeight();
+        final float remain = Math.min(1f, scale * width / sampledWidth);
+        final boolean needScale = Math.round(sampledWidth * remain) < sampledWidth
+                || Math.round(sampledHeight * remain) < sampledHeight;
+        if (degree == 0 && !needScale) {
+            return sampled;
+        }
+
+        Matrix matrix = new Matrix();
+        if (degree != 0) {
+            matrix.postRotate(degree);
+        }
+        if (needScale) {
+            matrix.postScale(remain, remain);
+        }
+        Bitmap result = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+        if (result != sampled) {
+            BitmapPool.getDefault().put(sampled);
+        }
+        return result;
+    }
+
+    /**
+     * 用池里的图片解码， 不合适的时候再按普通方式解码
+     */
+    private static Bitmap decodeReusing(String path, BitmapFactory.Options options) {
+        final int sampleSize = options.inSampleSize;
+        if (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // 按向上取整估计采样之后的大小， 4.4 以上只要内存够大就行
+            options.inBitmap = BitmapPool.getDefault().getForDecode(
+                    (options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize,
+                    options.inPreferredConfig);
+        }
+        if (options.inBitmap != null) {
+            try {
+                return BitmapFactory.decodeFile(path, options);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "decode: can not reuse bitmap", e);
+                BitmapPool.getDefault().put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * 计算最终的缩放比例， 不会放大
+     */
+    static float computeScale(int width, int height, int reqWidth, int reqHeight, long maxBytes) {
+        float scale = 1f;
+        if (reqWidth > 0 && reqHeight > 0) {
+            scale = Math.min(1f, Math.min((float) reqWidth / width, (float) reqHeight / height));
+        }
+
+        final double bytes = (double) width * height * scale * scale * BYTES_PER_PIXEL;
+        if (maxBytes > 0 && bytes > maxBytes) {
+            scale *= (float) Math.sqrt(maxBytes / bytes);
+        }
+        return scale;
+    }
+
+    /**
+     * 2 的幂， 采样之后的尺寸不小于最终尺寸
+     */
+    static int computeSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 像素合成的内核
+ * <p>
+ * 像素是 {@link android.graphics.Bitmap#getPixels} 返回的非预乘 ARGB。
+ * 在非预乘空间里 DST_IN / DST_OUT 只改变透明度， 颜色不变，
+ * 写回去的时候 setPixels 再预乘， 和在预乘空间里所有分量一起缩放的结果一致。
+ */
+final class PixelKernels {
+    private PixelKernels() {
+    }
+
+    /**
+     * 按蒙版合成若干行
+     *
+     * @param pixels      像素
+     * @param offset      第一个像素的下标
+     * @param stride      像素每行的长度
+     * @param mask        每个像素一个字节的覆盖度
+     * @param maskOffset  对应第一个像素的蒙版下标
+     * @param maskStride  蒙版每行的字节数
+     * @param out         true 为 DST_OUT （擦掉覆盖的部分）， false 为 DST_IN （只保留覆盖的部分）
+     */
+    static void applyMask(int[] pixels, int offset, int stride, byte[] mask, int maskOffset, int maskStride,
+                          int width, int rows, boolean out) {
+        final int invert = out ? 0xFF : 0;
+        for (int y = 0; y < rows; y++) {
+            int p = offset + y * stride;
+            int m = maskOffset + y * maskStride;
+            for (int x = 0; x < width; x++, p++, m++) {
+                final int coverage = (mask[m] & 0xFF) ^ invert;
+                if (coverage == 0xFF) {
+                    continue;
+                }
+                final int color = pixels[p];
+                final int alpha = multiply(color >>> 24, coverage);
+                pixels[p] = alpha == 0 ? 0 : (color & 0x00FFFFFF) | (alpha << 24);
+            }
+        }
+    }
+
+    /**
+     * a * b / 255， 四舍五入
+     */
+    static int multiply(int a, int b) {
+        final int product = a * b + 128;
+        return (product + (product >> 8)) >> 8;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ishow.cutout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Created by yuhaiyang on 2017/10/14.
+ * 按行写 PNG
+ * <p>
+ * {@link android.graphics.Bitmap#compress} 需要整张图片都在内存里，
+ * 导出大图的时候一条一条地写， 内存只和一行的大小有关。
+ * 输出 8 位 RGBA， 每行使用 Sub 过滤。
+ */
+class PngStripWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    /**
+     * 一个 IDAT 块的大小
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILTER_SUB = 1;
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    private final Deflater mDeflater;
+    private final CRC32 mCrc;
+    private final byte[] mRow;
+    private final byte[] mChunk;
+    private int mChunkLength;
+    private int mWrittenRows;
+
+    PngStripWriter(OutputStream out, int width, int height) throws IOException {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        mCrc = new CRC32();
+        mRow = new byte[1 + width * 4];
+        mChunk = new byte[CHUNK_SIZE];
+
+        mOut.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;  // bit depth
+        header[9] = 6;  // RGBA
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filter
+        header[12] = 0; // no interlace
+        writeChunk(IHDR, header, header.length);
+    }
+
+    /**
+     * 写入若干行
+     *
+     * @param pixels 非预乘的 ARGB， 也就是 {@link android.graphics.Bitmap#getPixels} 的结果
+     * @param rows   行数
+     */
+    void writeRows(int[] pixels, int rows) throws IOException {
+        if (mWrittenRows + rows > mHeight) {
+            throw new IllegalStateException("too many rows");
+        }
+        final byte[] row = mRow;
+        for (int y = 0; y < rows; y++) {
+            final int offset = y * mWidth;
+            row[0] = FILTER_SUB;
+            int lastR = 0, lastG = 0, lastB = 0, lastA = 0;
+            for (int x = 0, i = 1; x < mWidth; x++, i += 4) {
+                final int color = pixels[offset + x];
+                final int a = color >>> 24;
+                final int r = (color >> 16) & 0xFF;
+                final int g = (color >> 8) & 0xFF;
+                final int b = color & 0xFF;
+                row[i] = (byte) (r - lastR);
+                row[i + 1] = (byte) (g - lastG);
+                row[i + 2] = (byte) (b - lastB);
+                row[i + 3] = (byte) (a - lastA);
+                lastR = r;
+                lastG = g;
+                lastB = b;
+                lastA = a;
+            }
+            mDeflater.setInput(row, 0, row.length);
+            while (!mDeflater.needsInput()) {
+                deflate();
+            }
+        }
+        mWrittenRows += rows;
+    }
+
+    /**
+     * 写完所有行之后调用， 不会关闭输出流
+     */
+    void finish() throws IOException {
+        if (mWrittenRows != mHeight) {
+            throw new IllegalStateException("expect " + mHeight + " rows but " + mWrittenRows);
+        }
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            deflate();
+        }
+        flushChunk();
+        writeChunk(IEND, mChunk, 0);
+        mDeflater.end();
+        mOut.flush();
+    }
+
+    private void deflate() throws IOException {
+        final int count = mDeflater.deflate(mChunk, mChunkLength, CHUNK_SIZE - mChunkLength);
+        mChunkLength += count;
+        if (mChunkLength == CHUNK_SIZE) {
+            flushChunk();
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (mChunkLength == 0) {
+            return;
+        }
+        writeChunk(IDAT, mChunk, mChunkLength);
+        mChunkLength = 0;
+    }
+
+    private void writeChunk(byte[] type, byte[] data, int length) throws IOException {
+        byte[] buffer = new byte[4];
+        writeInt(buffer, 0, length);
+        mOut.write(buffer);
+        mOut.write(type);
+        mOut.write(data, 0, length);
+
+        mCrc.reset();
+        mCrc.update(type);
+        mCrc.update(data, 0, length);
+        writeInt(buffer, 0, (int) mCrc.getValue());
+        mOut.write(buffer);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
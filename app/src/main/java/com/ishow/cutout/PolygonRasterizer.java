@@ -0,0 +1,325 @@
+package com.ishow.cutout;
+
+import java.util.Arrays;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 闭合多边形的扫描线填充
+ * <p>
+ * 不依赖 Canvas， 结果只和输入有关， 可以在 JVM 上直接测试和跑基准。
+ * 边按上端排序， 扫描的时候维护活动边表， 只处理多边形外接矩形里的行和列。
+ * <p>
+ * 抗锯齿： 每行像素分成 {@link #SUB_SCANLINES} 条子扫描线， 每条子扫描线上的交点按填充规则配对成区间，
+ * 区间两端在水平方向按实际覆盖的长度计算 （1/256 像素精度）， 所以奇偶和非零环绕两种规则都是精确的，
+ * 自相交、 重叠的轨迹也不会算错。 中间完整的像素用差分数组累加， 每条子扫描线的开销只和交点数有关。
+ */
+class PolygonRasterizer {
+    /**
+     * 非零环绕， 和 {@link android.graphics.Path.FillType#WINDING} 一致
+     */
+    static final int FILL_NON_ZERO = 0;
+    /**
+     * 奇偶规则， 和 {@link android.graphics.Path.FillType#EVEN_ODD} 一致
+     */
+    static final int FILL_EVEN_ODD = 1;
+
+    /**
+     * 每行像素的子扫描线数
+     */
+    private static final int SUB_SCANLINES = 16;
+    private static final int SUB_SHIFT = 8;
+    private static final int SUB_ONE = 1 << SUB_SHIFT;
+    private static final int SUB_MASK = SUB_ONE - 1;
+    /**
+     * 一个像素完全覆盖时的累加值
+     */
+    private static final int FULL = SUB_SCANLINES * SUB_ONE;
+
+    private int mFillType = FILL_NON_ZERO;
+    private float mScaleX = 1;
+    private float mScaleY = 1;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    /**
+     * 每条边： 上端 y， 下端 y， 上端 x， 斜率 dx/dy， 方向
+     */
+    private float[] mEdgeTop;
+    private float[] mEdgeBottom;
+    private float[] mEdgeX;
+    private float[] mEdgeSlope;
+    private int[] mEdgeWinding;
+    private int mEdgeCount;
+    /**
+     * 高 32 位是上端 y 的位模式 （非负浮点数的位模式和大小顺序一致）， 低 32 位是边的下标
+     */
+    private long[] mSorted;
+    /**
+     * 活动边表， 以及每条活动边在当前子扫描线上的 x
+     */
+    private int[] mActive;
+    private float[] mActiveX;
+    private int mActiveCount;
+
+    /**
+     * 当前行的覆盖度： 边缘像素直接累加， 连续的完整像素用差分
+     */
+    private int[] mCover;
+    private int[] mDelta;
+
+    PolygonRasterizer() {
+        ensureEdgeCapacity(64);
+        mCover = new int[0];
+        mDelta = new int[0];
+    }
+
+    /**
+     * @param fillType {@link #FILL_NON_ZERO} 或者 {@link #FILL_EVEN_ODD}
+     */
+    void setFillType(int fillType) {
+        mFillType = fillType;
+    }
+
+    int getFillType() {
+        return mFillType;
+    }
+
+    /**
+     * 点的变换： x' = x * scaleX + dx， y' = y * scaleY + dy
+     */
+    void setTransform(float scaleX, float scaleY, float dx, float dy) {
+        mScaleX = scaleX;
+        mScaleY = scaleY;
+        mTranslateX = dx;
+        mTranslateY = dy;
+    }
+
+    /**
+     * 填充一个多边形， 最后一个点和第一个点自动连起来
+     * 覆盖度按 SRC_OVER 叠加到蒙版已有的内容上， 范围外的部分被裁掉
+     *
+     * @param points x0, y0, x1, y1 ...
+     * @param offset 第一个点在 points 中的下标
+     * @param count  点数
+     * @param mask   每个像素一个字节的覆盖度
+     * @param stride 蒙版每行的字节数
+     */
+    void fill(float[] points, int offset, int count, byte[] mask, int width, int height, int stride) {
+        if (count < 3 || width <= 0 || height <= 0) {
+            return;
+        }
+
+        if (!buildEdges(points, offset, count, height)) {
+            return;
+        }
+
+        // 外接矩形， 裁到蒙版范围内
+        float minX = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            final float x = points[offset + i * 2] * mScaleX + mTranslateX;
+            final float y = points[offset + i * 2 + 1] * mScaleY + mTranslateY;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        final int left = Math.max(0, (int) Math.floor(minX));
+        final int right = Math.min(width, (int) Math.ceil(maxX));
+        final int top = Math.max(0, (int) Math.floor(minY));
+        final int bottom = Math.min(height, (int) Math.ceil(maxY));
+        if (left >= right || top >= bottom) {
+            return;
+        }
+
+        final int columns = right - left;
+        if (mCover.length < columns + 1) {
+            mCover = new int[columns + 1];
+            mDelta = new int[columns + 1];
+        }
+
+        Arrays.sort(mSorted, 0, mEdgeCount);
+        mActiveCount = 0;
+        int next = 0;
+
+        for (int row = top; row < bottom; row++) {
+            boolean touched = false;
+            for (int sub = 0; sub < SUB_SCANLINES; sub++) {
+                final float y = row + (sub + 0.5F) / SUB_SCANLINES;
+                next = updateActive(y, next);
+                if (mActiveCount > 1) {
+                    touched |= scanSpans(y, left, right);
+                }
+            }
+            if (touched) {
+                resolveRow(mask, row * stride + left, columns);
+            } else if (mActiveCount == 0 && next == mEdgeCount) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 把点转成边， 水平的边和完全在蒙版上下之外的边不参与扫描
+     *
+     * @return 是否有边
+     */
+    private boolean buildEdges(float[] points, int offset, int count, int height) {
+        ensureEdgeCapacity(count);
+        mEdgeCount = 0;
+        for (int i = 0; i < count; i++) {
+            final int j = i + 1 == count ? 0 : i + 1;
+            final float x0 = points[offset + i * 2] * mScaleX + mTranslateX;
+            final float y0 = points[offset + i * 2 + 1] * mScaleY + mTranslateY;
+            final float x1 = points[offset + j * 2] * mScaleX + mTranslateX;
+            final float y1 = points[offset + j * 2 + 1] * mScaleY + mTranslateY;
+            if (y0 == y1) {
+                continue;
+            }
+            final int winding = y1 > y0 ? 1 : -1;
+            final float topY = Math.min(y0, y1);
+            final float bottomY = Math.max(y0, y1);
+            if (bottomY <= 0 || topY >= height) {
+                continue;
+            }
+            final float slope = (x1 - x0) / (y1 - y0);
+            // 上端裁到 0， 排序的键只需要处理非负数
+            final float clippedTop = Math.max(0, topY);
+            mEdgeTop[mEdgeCount] = clippedTop;
+            mEdgeBottom[mEdgeCount] = bottomY;
+            mEdgeX[mEdgeCount] = (winding > 0 ? x0 : x1) + (clippedTop - topY) * slope;
+            mEdgeSlope[mEdgeCount] = slope;
+            mEdgeWinding[mEdgeCount] = winding;
+            mSorted[mEdgeCount] = ((long) Float.floatToIntBits(clippedTop) << 32) | mEdgeCount;
+            mEdgeCount++;
+        }
+        return mEdgeCount > 1;
+    }
+
+    /**
+     * 加入上端已经到达 y 的边， 去掉下端已经不超过 y 的边， 计算交点后按 x 排序
+     *
+     * @param next 下一条还没有加入的边在 mSorted 中的位置
+     * @return 新的 next
+     */
+    private int updateActive(float y, int next) {
+        while (next < mEdgeCount) {
+            final int edge = (int) mSorted[next];
+            if (mEdgeTop[edge] > y) {
+                break;
+            }
+            mActive[mActiveCount++] = edge;
+            next++;
+        }
+        int kept = 0;
+        for (int i = 0; i < mActiveCount; i++) {
+            final int edge = mActive[i];
+            if (mEdgeBottom[edge] <= y || mEdgeTop[edge] > y) {
+                continue;
+            }
+            mActive[kept] = edge;
+            mActiveX[kept] = mEdgeX[edge] + (y - mEdgeTop[edge]) * mEdgeSlope[edge];
+            kept++;
+        }
+        mActiveCount = kept;
+
+        // 相邻两条子扫描线的顺序几乎不变， 插入排序接近线性
+        for (int i = 1; i < mActiveCount; i++) {
+            final int edge = mActive[i];
+            final float x = mActiveX[i];
+            int j = i - 1;
+            while (j >= 0 && mActiveX[j] > x) {
+                mActive[j + 1] = mActive[j];
+                mActiveX[j + 1] = mActiveX[j];
+                j--;
+            }
+            mActive[j + 1] = edge;
+            mActiveX[j + 1] = x;
+        }
+        return next;
+    }
+
+    /**
+     * 按填充规则把交点配对成区间并累加覆盖度
+     *
+     * @return 是否有区间落在外接矩形里
+     */
+    private boolean scanSpans(float y, int left, int right) {
+        boolean touched = false;
+        int winding = 0;
+        for (int i = 0; i < mActiveCount - 1; i++) {
+            winding += mEdgeWinding[mActive[i]];
+            final boolean inside = mFillType == FILL_EVEN_ODD ? (winding & 1) != 0 : winding != 0;
+            if (!inside) {
+                continue;
+            }
+            final float start = Math.max(left, mActiveX[i]);
+            final float end = Math.min(right, mActiveX[i + 1]);
+            if (start < end) {
+                addSpan(start - left, end - left);
+                touched = true;
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * 累加 [start, end) 的覆盖， 坐标相对外接矩形的左边
+     */
+    private void addSpan(float start, float end) {
+        final int fixedStart = (int) (start * SUB_ONE + 0.5F);
+        final int fixedEnd = (int) (end * SUB_ONE + 0.5F);
+        if (fixedStart >= fixedEnd) {
+            return;
+        }
+        final int first = fixedStart >> SUB_SHIFT;
+        final int last = fixedEnd >> SUB_SHIFT;
+        if (first == last) {
+            mCover[first] += fixedEnd - fixedStart;
+            return;
+        }
+        mCover[first] += SUB_ONE - (fixedStart & SUB_MASK);
+        mCover[last] += fixedEnd & SUB_MASK;
+        // (first, last) 之间的像素完全覆盖
+        mDelta[first + 1] += SUB_ONE;
+        mDelta[last] -= SUB_ONE;
+    }
+
+    /**
+     * 把一行的累加值换算成覆盖度叠加到蒙版上， 然后清零
+     */
+    private void resolveRow(byte[] mask, int offset, int columns) {
+        int run = 0;
+        for (int x = 0; x < columns; x++) {
+            run += mDelta[x];
+            final int sum = mCover[x] + run;
+            mCover[x] = 0;
+            mDelta[x] = 0;
+            if (sum <= 0) {
+                continue;
+            }
+            final int coverage = sum >= FULL ? 0xFF : (sum * 0xFF + FULL / 2) / FULL;
+            final int index = offset + x;
+            final int dst = mask[index] & 0xFF;
+            mask[index] = (byte) (dst + coverage - PixelKernels.multiply(dst, coverage));
+        }
+        mCover[columns] = 0;
+        mDelta[columns] = 0;
+    }
+
+    private void ensureEdgeCapacity(int count) {
+        if (mEdgeTop != null && mEdgeTop.length >= count) {
+            return;
+        }
+        mEdgeTop = new float[count];
+        mEdgeBottom = new float[count];
+        mEdgeX = new float[count];
+        mEdgeSlope = new float[count];
+        mEdgeWinding = new int[count];
+        mSorted = new long[count];
+        mActive = new int[count];
+        mActiveX = new float[count];
+    }
+}
@@ -0,0 +1,172 @@
+package com.ishow.cutout;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Created by yuhaiyang on 2017/10/11.
+ * 历史记录图片的存储
+ * <p>
+ * 最近的记录图片按字节数放在 LRU 里面，写 PNG 放到后台线程排队执行，
+ * 所以提交抠图的时候不用等编码，回退记录的时候一般也不用再解码文件。
+ */
+class RecordStore {
+    private static final String TAG = "RecordStore";
+    /**
+     * 默认内存上限 24M
+     */
+    static final int DEFAULT_MAX_BYTES = 24 * 1024 * 1024;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mCache;
+    /**
+     * 还没有写到磁盘的图片，写完之前不能回收
+     */
+    private final Map<String, Bitmap> mPendingMap;
+    /**
+     * 写完之前就被 LRU 淘汰的图片
+     */
+    private final Set<String> mEvictedSet;
+    /**
+     * 写文件的线程， close 之后再用的时候重新创建
+     */
+    private ExecutorService mWriter;
+
+    RecordStore(Context context) {
+        this(context, DEFAULT_MAX_BYTES);
+    }
+
+    RecordStore(Context context, int maxBytes) {
+        mContext = context.getApplicationContext();
+        mPendingMap = new HashMap<>();
+        mEvictedSet = new HashSet<>();
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                synchronized (mPendingMap) {
+                    if (mPendingMap.containsKey(key)) {
+                        mEvictedSet.add(key);
+                    } else {
+                        BitmapPool.getDefault().put(oldValue);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 保存一张记录图片
+     *
+     * @param bitmap 不会再被修改的图片，交给 RecordStore 管理
+     * @return 图片最终写入的路径， 返回时文件不一定已经写完
+     */
+    String put(final Bitmap bitmap) {
+        final String path = CutoutView.generateRandomPhotoName(mContext);
+        synchronized (mPendingMap) {
+            mPendingMap.put(path, bitmap);
+        }
+        mCache.put(path, bitmap);
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                write(path, bitmap);
+            }
+        });
+        return path;
+    }
+
+    /**
+     * 获取记录图片
+     *
+     * @return 一份可以修改的拷贝， 调用方负责回收
+     */
+    Bitmap get(String path) {
+        Bitmap bitmap;
+        synchronized (mPendingMap) {
+            bitmap = mPendingMap.get(path);
+            if (bitmap == null) {
+                bitmap = mCache.get(path);
+            }
+            if (bitmap != null && !bitmap.isRecycled()) {
+                return BitmapPool.getDefault().copy(bitmap);
+            }
+        }
+        return BitmapFactory.decodeFile(path);
+    }
+
+    /**
+     * 清空内存中的记录， 还没写完的会继续写
+     */
+    void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * 不再使用的时候调用： 已经提交的图片会继续写完， 然后线程退出， 内存中的记录也一起释放
+     */
+    void close() {
+        mCache.evictAll();
+        if (mWriter != null) {
+            mWriter.shutdown();
+            mWriter = null;
+        }
+    }
+
+    /**
+     * 缓存占用的内存
+     */
+    long getByteCount() {
+        return mCache.size();
+    }
+
+    private ExecutorService getWriter() {
+        if (mWriter == null) {
+            mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return mWriter;
+    }
+
+    private void write(String path, Bitmap bitmap) {
+        try {
+            FileOutputStream out = new FileOutputStream(new File(path));
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.flush();
+            out.close();
+        } catch (Exception e) {
+            Log.e(TAG, "write: " + path + " failed", e);
+        }
+
+        synchronized (mPendingMap) {
+            mPendingMap.remove(path);
+            // 写完之前已经被 LRU 淘汰了， 这时候才真正回收
+            if (mEvictedSet.remove(path)) {
+                BitmapPool.getDefault().put(bitmap);
+            }
+        }
+    }
+}
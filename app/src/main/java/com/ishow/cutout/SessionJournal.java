@@ -0,0 +1,403 @@
+package com.ishow.cutout;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 编辑会话日志
+ * <p>
+ * 进程被杀之后 mCutoutRecordList 只剩下缓存目录里的 PNG， 这里把原图路径、 图片位置、
+ * 每条记录的笔画和记录图片的路径按顺序追加到一个二进制文件里。 恢复的时候用内存映射一次读完，
+ * 中间记录的 PNG 不需要解码， 只有最后一条记录的图片需要加载。
+ * <p>
+ * 文件格式 （大端）：
+ * <pre>
+ * int magic, int version
+ * 然后是若干条： byte type, int length, byte[length] payload, int checksum
+ * </pre>
+ * 进程在写的过程中被杀的时候最后一条可能不完整， 读取的时候丢掉它以及之后的内容。
+ */
+class SessionJournal {
+    private static final String TAG = "SessionJournal";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x43555453; // CUTS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * type + length
+     */
+    private static final int ENTRY_HEAD_SIZE = 5;
+    private static final int ENTRY_TAIL_SIZE = 4;
+
+    /**
+     * 原图和图片位置： String path, int left, int top, int width, int height
+     */
+    private static final byte TYPE_SOURCE = 1;
+    /**
+     * 新的记录： String imagePath
+     */
+    private static final byte TYPE_RECORD = 2;
+    /**
+     * 当前记录的一笔： int tool, float width, int alpha, int count, float[count * 2]
+     */
+    private static final byte TYPE_STROKE = 3;
+    /**
+     * 当前记录只保留前几笔： int strokeCount
+     */
+    private static final byte TYPE_TRUNCATE = 4;
+    /**
+     * 移除最后一条记录
+     */
+    private static final byte TYPE_POP_RECORD = 5;
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+    /**
+     * 写失败之后就不再写了， 直到下一次 begin
+     */
+    private boolean isBroken;
+
+    SessionJournal(File file) {
+        mFile = file;
+        mBuffer = ByteBuffer.allocate(1024);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 开始一个新的会话， 之前的内容会被覆盖
+     * 先写到临时文件再替换， 替换之前进程被杀也不会丢掉旧的会话
+     */
+    void begin(String sourcePath, int photoLeft, int photoTop, int photoWidth, int photoHeight) {
+        close();
+        isBroken = false;
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            open(temp, 0);
+            mBuffer.clear();
+            mBuffer.putInt(MAGIC);
+            mBuffer.putInt(VERSION);
+            mBuffer.flip();
+            write();
+
+            final byte[] path = sourcePath.getBytes(UTF_8);
+            beginEntry(TYPE_SOURCE, 2 + path.length + 16);
+            putString(path);
+            mBuffer.putInt(photoLeft);
+            mBuffer.putInt(photoTop);
+            mBuffer.putInt(photoWidth);
+            mBuffer.putInt(photoHeight);
+            endEntry();
+
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("rename " + temp + " failed");
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 在已有的会话后面继续写
+     *
+     * @param session {@link #read(File)} 的结果， 它之后的不完整内容会被截掉
+     */
+    void resume(Session session) {
+        close();
+        isBroken = false;
+        try {
+            open(mFile, session.length);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void appendRecord(String imagePath) {
+        final byte[] path = imagePath.getBytes(UTF_8);
+        if (!ensureOpen()) {
+            return;
+        }
+        beginEntry(TYPE_RECORD, 2 + path.length);
+        putString(path);
+        commit();
+    }
+
+    void appendStroke(StrokeLog log, int stroke) {
+        if (!ensureOpen()) {
+            return;
+        }
+        final int count = log.getPointCount(stroke);
+        beginEntry(TYPE_STROKE, 16 + count * 8);
+        mBuffer.putInt(log.getTool(stroke));
+        mBuffer.putFloat(log.getWidth(stroke));
+        mBuffer.putInt(log.getAlpha(stroke));
+        mBuffer.putInt(count);
+        final float[] points = log.getPoints();
+        final int offset = log.getPointOffset(stroke);
+        for (int i = 0; i < count * 2; i++) {
+            mBuffer.putFloat(points[offset + i]);
+        }
+        commit();
+    }
+
+    void appendTruncate(int strokeCount) {
+        if (!ensureOpen()) {
+            return;
+        }
+        beginEntry(TYPE_TRUNCATE, 4);
+        mBuffer.putInt(strokeCount);
+        commit();
+    }
+
+    void appendPopRecord() {
+        if (!ensureOpen()) {
+            return;
+        }
+        beginEntry(TYPE_POP_RECORD, 0);
+        commit();
+    }
+
+    void close() {
+        if (mRandomAccessFile == null) {
+            return;
+        }
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close: failed", e);
+        }
+        mRandomAccessFile = null;
+        mChannel = null;
+    }
+
+    /**
+     * 删除会话文件
+     */
+    void delete() {
+        close();
+        isBroken = true;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "delete: " + mFile + " failed");
+        }
+    }
+
+    /**
+     * 读取会话
+     *
+     * @return 没有会话或者格式不对的时候返回 null
+     */
+    static Session read(File file) {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.i(TAG, "read: unknown format " + file);
+                return null;
+            }
+            return parse(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "read: " + file + " failed", e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "read: close failed", e);
+                }
+            }
+        }
+    }
+
+    private static Session parse(ByteBuffer buffer) {
+        Session session = null;
+        StrokeLog current = null;
+        while (buffer.remaining() >= ENTRY_HEAD_SIZE + ENTRY_TAIL_SIZE) {
+            final int start = buffer.position();
+            final byte type = buffer.get();
+            final int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() - ENTRY_TAIL_SIZE) {
+                break;
+            }
+            final int checksum = buffer.getInt(start + ENTRY_HEAD_SIZE + length);
+            if (checksum != checksum(buffer, start, ENTRY_HEAD_SIZE + length)) {
+                break;
+            }
+
+            if (type == TYPE_SOURCE) {
+                session = new Session(getString(buffer), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+                current = session.strokeLogs.get(0);
+            } else if (session == null) {
+                // 第一条必须是原图
+                return null;
+            } else if (type == TYPE_RECORD) {
+                current = session.addRecord(getString(buffer));
+            } else if (type == TYPE_STROKE) {
+                final int tool = buffer.getInt();
+                final float width = buffer.getFloat();
+                final int alpha = buffer.getInt();
+                final int count = buffer.getInt();
+                current.beginStroke(tool, width, alpha);
+                current.addPoints(buffer.asFloatBuffer(), count);
+            } else if (type == TYPE_TRUNCATE) {
+                current.truncate(buffer.getInt());
+            } else if (type == TYPE_POP_RECORD) {
+                current = session.popRecord();
+            }
+
+            buffer.position(start + ENTRY_HEAD_SIZE + length + ENTRY_TAIL_SIZE);
+            session.length = buffer.position();
+        }
+        return session;
+    }
+
+    private void open(File file, long length) throws IOException {
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mChannel.truncate(length);
+        mChannel.position(length);
+    }
+
+    private boolean ensureOpen() {
+        if (isBroken) {
+            return false;
+        }
+        if (mChannel == null) {
+            if (!mFile.isFile()) {
+                return false;
+            }
+            try {
+                open(mFile, mFile.length());
+            } catch (IOException e) {
+                fail(e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void beginEntry(byte type, int length) {
+        final int size = ENTRY_HEAD_SIZE + length + ENTRY_TAIL_SIZE;
+        if (mBuffer.capacity() < size) {
+            mBuffer = ByteBuffer.allocate(Math.max(size, mBuffer.capacity() * 2));
+        }
+        mBuffer.clear();
+        mBuffer.put(type);
+        mBuffer.putInt(length);
+    }
+
+    private void endEntry() throws IOException {
+        mBuffer.putInt(checksum(mBuffer, 0, mBuffer.position()));
+        mBuffer.flip();
+        write();
+    }
+
+    private void commit() {
+        try {
+            endEntry();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void write() throws IOException {
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "write " + mFile + " failed", e);
+        close();
+        isBroken = true;
+    }
+
+    private void putString(byte[] bytes) {
+        mBuffer.putShort((short) bytes.length);
+        mBuffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 只用来发现写了一半的内容， 不需要 CRC 那么强
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        int sum = 1;
+        for (int i = offset; i < offset + length; i++) {
+            sum = sum * 31 + (buffer.get(i) & 0xFF);
+        }
+        return sum;
+    }
+
+    /**
+     * 读取出来的会话
+     */
+    static class Session {
+        final String sourcePath;
+        final int photoLeft;
+        final int photoTop;
+        final int photoWidth;
+        final int photoHeight;
+        /**
+         * 每条记录的图片， 第一条是原图
+         */
+        final List<String> imagePaths;
+        final List<StrokeLog> strokeLogs;
+        /**
+         * 完整内容的长度
+         */
+        long length;
+
+        Session(String sourcePath, int photoLeft, int photoTop, int photoWidth, int photoHeight) {
+            this.sourcePath = sourcePath;
+            this.photoLeft = photoLeft;
+            this.photoTop = photoTop;
+            this.photoWidth = photoWidth;
+            this.photoHeight = photoHeight;
+            imagePaths = new ArrayList<>();
+            strokeLogs = new ArrayList<>();
+            addRecord(sourcePath);
+        }
+
+        StrokeLog addRecord(String imagePath) {
+            StrokeLog log = new StrokeLog();
+            imagePaths.add(imagePath);
+            strokeLogs.add(log);
+            return log;
+        }
+
+        StrokeLog popRecord() {
+            if (imagePaths.size() > 1) {
+                imagePaths.remove(imagePaths.size() - 1);
+                strokeLogs.remove(strokeLogs.size() - 1);
+            }
+            return strokeLogs.get(strokeLogs.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.ishow.cutout;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Created by yuhaiyang on 2017/10/17.
+ * 笔画记录
+ * <p>
+ * 所有的点按图片坐标 (x, y) 依次存在一个 float 数组里， 每一笔只记录起点下标、 工具、 宽度和透明度，
+ * 每个点只占 8 个字节， 可以很方便地回退、 序列化或者在后台线程重放。
+ */
+class StrokeLog {
+    /**
+     * 抠图的轨迹 （还没有闭合）
+     */
+    static final int TOOL_TRACK = 1;
+    /**
+     * 闭合的抠图路径
+     */
+    static final int TOOL_LASSO = 2;
+    /**
+     * 擦除
+     */
+    static final int TOOL_ERASER = 3;
+    /**
+     * 魔棒擦除的区域， 每两个点是一个矩形的左上角和右下角
+     */
+    static final int TOOL_WAND = 4;
+
+    private static final int DEFAULT_POINT_CAPACITY = 256;
+    private static final int DEFAULT_STROKE_CAPACITY = 8;
+
+    /**
+     * x0, y0, x1, y1 ...
+     */
+    private float[] mPoints;
+    private int mPointCount;
+
+    private int[] mStrokeStart;
+    private int[] mStrokeTool;
+    private float[] mStrokeWidth;
+    private int[] mStrokeAlpha;
+    private int mStrokeCount;
+
+    StrokeLog() {
+        mPoints = new float[DEFAULT_POINT_CAPACITY * 2];
+        mStrokeStart = new int[DEFAULT_STROKE_CAPACITY];
+        mStrokeTool = new int[DEFAULT_STROKE_CAPACITY];
+        mStrokeWidth = new float[DEFAULT_STROKE_CAPACITY];
+        mStrokeAlpha = new int[DEFAULT_STROKE_CAPACITY];
+    }
+
+    /**
+     * 开始新的一笔
+     *
+     * @return 这一笔的下标
+     */
+    int beginStroke(int tool, float width, int alpha) {
+        if (mStrokeCount == mStrokeStart.length) {
+            final int capacity = mStrokeCount * 2;
+            mStrokeStart = Arrays.copyOf(mStrokeStart, capacity);
+            mStrokeTool = Arrays.copyOf(mStrokeTool, capacity);
+            mStrokeWidth = Arrays.copyOf(mStrokeWidth, capacity);
+            mStrokeAlpha = Arrays.copyOf(mStrokeAlpha, capacity);
+        }
+        mStrokeStart[mStrokeCount] = mPointCount;
+        mStrokeTool[mStrokeCount] = tool;
+        mStrokeWidth[mStrokeCount] = width;
+        mStrokeAlpha[mStrokeCount] = alpha;
+        return mStrokeCount++;
+    }
+
+    /**
+     * 给最后一笔添加一个点
+     */
+    void addPoint(float x, float y) {
+        if (mStrokeCount == 0) {
+            throw new IllegalStateException("call beginStroke first");
+        }
+        ensurePointCapacity(mPointCount + 1);
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        mPointCount++;
+    }
+
+    /**
+     * 把 source 中的一笔的所有点追加到最后一笔
+     */
+    void addPoints(StrokeLog source, int stroke) {
+        final int count = source.getPointCount(stroke);
+        ensurePointCapacity(mPointCount + count);
+        System.arraycopy(source.mPoints, source.getPointOffset(stroke), mPoints, mPointCount * 2, count * 2);
+        mPointCount += count;
+    }
+
+    /**
+     * 从 buffer 当前位置读取 count 个点追加到最后一笔
+     */
+    void addPoints(FloatBuffer buffer, int count) {
+        ensurePointCapacity(mPointCount + count);
+        buffer.get(mPoints, mPointCount * 2, count * 2);
+        mPointCount += count;
+    }
+
+    /**
+     * 所有点和宽度按比例缩放， 图片大小变化的时候使用
+     */
+    void scale(float scale) {
+        for (int i = 0; i < mPointCount * 2; i++) {
+            mPoints[i] *= scale;
+        }
+        for (int i = 0; i < mStrokeCount; i++) {
+            mStrokeWidth[i] *= scale;
+        }
+    }
+
+    /**
+     * 只保留前 strokeCount 笔， 用于回退
+     */
+    void truncate(int strokeCount) {
+        if (strokeCount >= mStrokeCount) {
+            return;
+        }
+        strokeCount = Math.max(0, strokeCount);
+        mPointCount = strokeCount == 0 ? 0 : mStrokeStart[strokeCount];
+        mStrokeCount = strokeCount;
+    }
+
+    void clear() {
+        truncate(0);
+    }
+
+    boolean isEmpty() {
+        return mStrokeCount == 0;
+    }
+
+    int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    int getTool(int stroke) {
+        return mStrokeTool[stroke];
+    }
+
+    float getWidth(int stroke) {
+        return mStrokeWidth[stroke];
+    }
+
+    int getAlpha(int stroke) {
+        return mStrokeAlpha[stroke];
+    }
+
+    /**
+     * 最后一笔的工具， 没有的时候返回 0
+     */
+    int getLastTool() {
+        return mStrokeCount == 0 ? 0 : mStrokeTool[mStrokeCount - 1];
+    }
+
+    /**
+     * 某种工具第一次出现的下标， 没有返回 -1
+     */
+    int indexOfTool(int tool) {
+        for (int i = 0; i < mStrokeCount; i++) {
+            if (mStrokeTool[i] == tool) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 某种工具的笔画数量
+     */
+    int countOfTool(int tool) {
+        int count = 0;
+        for (int i = 0; i < mStrokeCount; i++) {
+            if (mStrokeTool[i] == tool) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int getPointCount(int stroke) {
+        final int end = stroke + 1 < mStrokeCount ? mStrokeStart[stroke + 1] : mPointCount;
+        return end - mStrokeStart[stroke];
+    }
+
+    /**
+     * 这一笔的第一个点在 {@link #getPoints()} 中的下标
+     */
+    int getPointOffset(int stroke) {
+        return mStrokeStart[stroke] * 2;
+    }
+
+    /**
+     * 所有点的数组， 只读， 配合 {@link #getPointOffset(int)} 和 {@link #getPointCount(int)} 使用
+     */
+    float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * 所有笔画的点的总数
+     */
+    int getTotalPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * 按顺序重放所有笔画
+     */
+    void replay(Visitor visitor) {
+        for (int i = 0; i < mStrokeCount; i++) {
+            visitor.onStroke(mStrokeTool[i], mStrokeWidth[i], mStrokeAlpha[i], mPoints, getPointOffset(i), getPointCount(i));
+        }
+    }
+
+    private void ensurePointCapacity(int count) {
+        if (count * 2 <= mPoints.length) {
+            return;
+        }
+        int capacity = mPoints.length;
+        while (capacity < count * 2) {
+            capacity *= 2;
+        }
+        mPoints = Arrays.copyOf(mPoints, capacity);
+    }
+
+    interface Visitor {
+        /**
+         * @param points 所有点的数组
+         * @param offset 这一笔第一个点的下标
+         * @param count  这一笔点的数量
+         */
+        void onStroke(int tool, float width, int alpha, float[] points, int offset, int count);
+    }
+}
@@ -0,0 +1,110 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 粗线条的扫描填充
+ * <p>
+ * 和 {@link PolygonRasterizer} 一样不依赖 Canvas， 用来在 JVM 上重放擦除的笔画。
+ * 圆头、 圆角的折线就是每一段线段外扩半个线宽得到的胶囊形的并集：
+ * 每个像素按中心到线段的距离计算覆盖度， 边缘一个像素的过渡就是抗锯齿， 和蒙版上已有的内容取最大值，
+ * 相邻两段重叠的部分不会叠加变深。 每一段只处理它的外接矩形。
+ */
+class StrokeRasterizer {
+    private float mScaleX = 1;
+    private float mScaleY = 1;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    /**
+     * 点的变换： x' = x * scaleX + dx， y' = y * scaleY + dy， 线宽按平均的缩放换算
+     */
+    void setTransform(float scaleX, float scaleY, float dx, float dy) {
+        mScaleX = scaleX;
+        mScaleY = scaleY;
+        mTranslateX = dx;
+        mTranslateY = dy;
+    }
+
+    /**
+     * 画一笔折线， 只有一个点的时候是一个圆点
+     *
+     * @param points x0, y0, x1, y1 ...
+     * @param offset 第一个点在 points 中的下标
+     * @param count  点数
+     * @param width  线宽
+     * @param mask   每个像素一个字节的覆盖度
+     * @param stride 蒙版每行的字节数
+     */
+    void stroke(float[] points, int offset, int count, float width, byte[] mask, int maskWidth, int maskHeight, int stride) {
+        if (count <= 0 || width <= 0) {
+            return;
+        }
+        final float radius = width * (Math.abs(mScaleX) + Math.abs(mScaleY)) / 4;
+        float lastX = points[offset] * mScaleX + mTranslateX;
+        float lastY = points[offset + 1] * mScaleY + mTranslateY;
+        if (count == 1) {
+            segment(lastX, lastY, lastX, lastY, radius, mask, maskWidth, maskHeight, stride);
+            return;
+        }
+        for (int i = 1; i < count; i++) {
+            final float x = points[offset + i * 2] * mScaleX + mTranslateX;
+            final float y = points[offset + i * 2 + 1] * mScaleY + mTranslateY;
+            segment(lastX, lastY, x, y, radius, mask, maskWidth, maskHeight, stride);
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    /**
+     * 一段线段外扩 radius 的胶囊形
+     */
+    private static void segment(float x0, float y0, float x1, float y1, float radius,
+                                byte[] mask, int width, int height, int stride) {
+        final float outer = radius + 0.5F;
+        final int left = Math.max(0, (int) Math.floor(Math.min(x0, x1) - outer));
+        final int right = Math.min(width, (int) Math.ceil(Math.max(x0, x1) + outer));
+        final int top = Math.max(0, (int) Math.floor(Math.min(y0, y1) - outer));
+        final int bottom = Math.min(height, (int) Math.ceil(Math.max(y0, y1) + outer));
+        if (left >= right || top >= bottom) {
+            return;
+        }
+
+        final float dx = x1 - x0;
+        final float dy = y1 - y0;
+        final float lengthSquared = dx * dx + dy * dy;
+        final float inverse = lengthSquared > 0 ? 1 / lengthSquared : 0;
+        final float outerSquared = outer * outer;
+        final float inner = Math.max(0, radius - 0.5F);
+        final float innerSquared = inner * inner;
+
+        for (int y = top; y < bottom; y++) {
+            final float py = y + 0.5F - y0;
+            final int row = y * stride;
+            for (int x = left; x < right; x++) {
+                final int index = row + x;
+                if (mask[index] == (byte) 0xFF) {
+                    continue;
+                }
+                final float px = x + 0.5F - x0;
+                // 像素中心在线段上的投影
+                float t = (px * dx + py * dy) * inverse;
+                t = t < 0 ? 0 : t > 1 ? 1 : t;
+                final float ex = px - t * dx;
+                final float ey = py - t * dy;
+                final float distanceSquared = ex * ex + ey * ey;
+                if (distanceSquared >= outerSquared) {
+                    continue;
+                }
+                final int coverage;
+                if (distanceSquared <= innerSquared) {
+                    coverage = 0xFF;
+                } else {
+                    coverage = Math.min(0xFF, (int) ((outer - (float) Math.sqrt(distanceSquared)) * 0xFF + 0.5F));
+                }
+                if (coverage > (mask[index] & 0xFF)) {
+                    mask[index] = (byte) coverage;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.ishow.cutout;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 轨迹的流式简化
+ * <p>
+ * 和 Douglas-Peucker 一样按点到弦的垂直距离判断， 只是一边输入一边输出：
+ * 从上一个输出的点 （锚点） 到最新的点连一条弦， 中间缓存的点只要有一个离弦超过容差，
+ * 就把前一个点作为新的锚点输出。 直线上的点几乎都会被丢掉， 拐弯的地方保留下来。
+ * 缓存的点数有上限， 每个点的开销是常数。
+ * <p>
+ * 慢慢画的时候相邻的点离得很近， 离缓存的最后一个点不到 1/4 容差的点会合并进这个点， 只更新它的位置，
+ * 不占缓存。 判断远近用的是这个点最初的位置， 不会跟着合并一路漂移；
+ * 合并过的点按一半的容差检查， 被合并掉的点离它不超过一半容差， 所以所有输入的点都在容差以内。
+ */
+class StrokeSimplifier {
+    /**
+     * 最多缓存的点数， 满了以后强制输出
+     */
+    private static final int MAX_WINDOW = 32;
+
+    private float mTolerance;
+    private float mToleranceSquare;
+    /**
+     * 合并过的点用的容差 (一半) 的平方
+     */
+    private float mMergedToleranceSquare;
+    /**
+     * 合并半径 (1/4 容差) 的平方
+     */
+    private float mMergeRadiusSquare;
+
+    private float mAnchorX;
+    private float mAnchorY;
+    /**
+     * 锚点之后还没有输出的点 x0, y0, x1, y1 ...
+     */
+    private final float[] mWindow;
+    /**
+     * 缓存的点是否合并过别的点
+     */
+    private final boolean[] mWindowMerged;
+    private int mWindowCount;
+    /**
+     * 缓存的最后一个点最初的位置
+     */
+    private float mLastX;
+    private float mLastY;
+
+    private float mX;
+    private float mY;
+
+    StrokeSimplifier(float tolerance) {
+        mWindow = new float[MAX_WINDOW * 2];
+        mWindowMerged = new boolean[MAX_WINDOW];
+        setTolerance(tolerance);
+    }
+
+    /**
+     * @param tolerance 允许偏离原轨迹的最大距离
+     */
+    void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+        mToleranceSquare = tolerance * tolerance;
+        mMergedToleranceSquare = mToleranceSquare / 4;
+        mMergeRadiusSquare = mToleranceSquare / 16;
+    }
+
+    float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * 开始一条轨迹， 起点由调用方自己记录
+     */
+    void begin(float x, float y) {
+        mAnchorX = x;
+        mAnchorY = y;
+        mWindowCount = 0;
+    }
+
+    /**
+     * 输入一个点
+     *
+     * @return 是否输出了一个点， 输出的点通过 {@link #getX()} {@link #getY()} 获取
+     */
+    boolean add(float x, float y) {
+        if (mWindowCount > 0) {
+            final int last = mWindowCount - 1;
+            final float dx = x - mLastX;
+            final float dy = y - mLastY;
+            // 离上一个点太近， 只更新位置； 更新后缓存的点要都还在容差以内， 不然按正常的点处理
+            if (dx * dx + dy * dy < mMergeRadiusSquare && isWithinTolerance(x, y)) {
+                mWindow[last * 2] = x;
+                mWindow[last * 2 + 1] = y;
+                mWindowMerged[last] = true;
+                return false;
+            }
+        }
+
+        boolean emit = mWindowCount == MAX_WINDOW || !isWithinTolerance(x, y);
+        if (emit) {
+            final int last = (mWindowCount - 1) * 2;
+            mX = mWindow[last];
+            mY = mWindow[last + 1];
+            mAnchorX = mX;
+            mAnchorY = mY;
+            mWindowCount = 0;
+        }
+        mWindow[mWindowCount * 2] = x;
+        mWindow[mWindowCount * 2 + 1] = y;
+        mWindowMerged[mWindowCount] = false;
+        mWindowCount++;
+        mLastX = x;
+        mLastY = y;
+        return emit;
+    }
+
+    /**
+     * 轨迹结束
+     *
+     * @return 是否还有最后一个点没有输出
+     */
+    boolean finish() {
+        if (mWindowCount == 0) {
+            return false;
+        }
+        final int last = (mWindowCount - 1) * 2;
+        mX = mWindow[last];
+        mY = mWindow[last + 1];
+        mAnchorX = mX;
+        mAnchorY = mY;
+        mWindowCount = 0;
+        return true;
+    }
+
+    float getX() {
+        return mX;
+    }
+
+    float getY() {
+        return mY;
+    }
+
+    /**
+     * 缓存的点到 锚点 -> (x, y) 这条线段的距离是否都在容差以内， 合并过的点用一半的容差
+     */
+    private boolean isWithinTolerance(float x, float y) {
+        final float dx = x - mAnchorX;
+        final float dy = y - mAnchorY;
+        final float lengthSquare = dx * dx + dy * dy;
+        for (int i = 0; i < mWindowCount; i++) {
+            final float px = mWindow[i * 2] - mAnchorX;
+            final float py = mWindow[i * 2 + 1] - mAnchorY;
+            final float dot = px * dx + py * dy;
+            final float distanceSquare;
+            if (lengthSquare == 0 || dot <= 0) {
+                distanceSquare = px * px + py * py;
+            } else if (dot >= lengthSquare) {
+                // 折返的时候点会落在弦的延长线上， 按到端点的距离算
+                final float qx = px - dx;
+                final float qy = py - dy;
+                distanceSquare = qx * qx + qy * qy;
+            } else {
+                // 叉积的平方 / 弦长的平方 = 垂直距离的平方
+                final float cross = px * dy - py * dx;
+                distanceSquare = cross * cross / lengthSquare;
+            }
+            if (distanceSquare > (mWindowMerged[i] ? mMergedToleranceSquare : mToleranceSquare)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
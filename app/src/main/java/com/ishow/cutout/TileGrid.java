@@ -0,0 +1,90 @@
+package com.ishow.cutout;
+
+import java.util.Arrays;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 分块回退的块记账
+ * <p>
+ * 把图片按 tileSize 切成网格， 记录一次操作里哪些块已经保存过。
+ * 每次修改之前把脏区域换算成块， 只把还没有保存过的块交给 {@link Visitor}，
+ * 同一个块在一次操作里只保存一次。 不依赖 android， 可以直接在 JVM 上测试。
+ */
+final class TileGrid {
+    private final int mTileSize;
+    private int mWidth;
+    private int mHeight;
+    private int mColumns;
+    private int mRows;
+    private boolean[] mCaptured;
+
+    TileGrid(int tileSize) {
+        mTileSize = tileSize;
+    }
+
+    int getTileSize() {
+        return mTileSize;
+    }
+
+    int getColumns() {
+        return mColumns;
+    }
+
+    int getRows() {
+        return mRows;
+    }
+
+    /**
+     * 开始一次新的操作， 所有块都标记为没有保存过
+     */
+    void reset(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mColumns = (width + mTileSize - 1) / mTileSize;
+        mRows = (height + mTileSize - 1) / mTileSize;
+        final int count = mColumns * mRows;
+        if (mCaptured == null || mCaptured.length < count) {
+            mCaptured = new boolean[count];
+        } else {
+            Arrays.fill(mCaptured, 0, count, false);
+        }
+    }
+
+    /**
+     * 把 [left, right) x [top, bottom) 覆盖到的、 还没有保存过的块依次交给 visitor
+     *
+     * @return 新保存的块数
+     */
+    int capture(int left, int top, int right, int bottom, Visitor visitor) {
+        if (mCaptured == null || right <= left || bottom <= top) {
+            return 0;
+        }
+        final int startX = Math.max(0, left / mTileSize);
+        final int startY = Math.max(0, top / mTileSize);
+        final int endX = Math.min(mColumns - 1, (right - 1) / mTileSize);
+        final int endY = Math.min(mRows - 1, (bottom - 1) / mTileSize);
+
+        int count = 0;
+        for (int ty = startY; ty <= endY; ty++) {
+            for (int tx = startX; tx <= endX; tx++) {
+                final int index = ty * mColumns + tx;
+                if (mCaptured[index]) {
+                    continue;
+                }
+                mCaptured[index] = true;
+                final int x = tx * mTileSize;
+                final int y = ty * mTileSize;
+                visitor.onTile(x, y, Math.min(mTileSize, mWidth - x), Math.min(mTileSize, mHeight - y));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    interface Visitor {
+        /**
+         * 一个需要保存的块， 右边和下边的块可能比 tileSize 小
+         */
+        void onTile(int x, int y, int width, int height);
+    }
+}
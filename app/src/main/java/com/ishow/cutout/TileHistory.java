@@ -0,0 +1,295 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by yuhaiyang on 2017/10/10.
+ * 分块的回退记录
+ * <p>
+ * 局部操作（擦除）只保存被修改的块在修改之前的像素，回退的时候直接把这些块写回去，
+ * 耗时只和修改的面积有关。
+ * 整图操作（抠图）会保存一个完整的检查点。
+ * 超出内存上限的时候从最旧的记录开始丢弃。
+ */
+class TileHistory {
+    /**
+     * 默认块大小
+     */
+    static final int DEFAULT_TILE_SIZE = 128;
+    /**
+     * 默认内存上限 32M
+     */
+    static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private long mMaxBytes;
+    private long mBytes;
+
+    private LinkedList<Entry> mEntryList;
+    /**
+     * 正在进行中的操作
+     */
+    private Entry mPending;
+    private Bitmap mPendingTarget;
+    private final TileGrid mGrid;
+    private final TileGrid.Visitor mCaptureVisitor = new TileGrid.Visitor() {
+        @Override
+        public void onTile(int x, int y, int width, int height) {
+            mPending.addTile(Tile.read(mPendingTarget, x, y, width, height));
+        }
+    };
+
+    TileHistory() {
+        this(DEFAULT_TILE_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    TileHistory(int tileSize, long maxBytes) {
+        mGrid = new TileGrid(tileSize);
+        mMaxBytes = maxBytes;
+        mEntryList = new LinkedList<>();
+    }
+
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 当前记录占用的内存
+     */
+    long getByteCount() {
+        return mBytes;
+    }
+
+    /**
+     * 开始一个局部操作
+     *
+     * @param target 要修改的图片
+     * @param tag    操作所属的记录
+     */
+    void beginOperation(Bitmap target, Object tag) {
+        cancelOperation();
+        if (target == null || target.isRecycled()) {
+            return;
+        }
+        mPendingTarget = target;
+        mPending = new Entry(tag);
+        mGrid.reset(target.getWidth(), target.getHeight());
+    }
+
+    /**
+     * 在修改 dirty 区域之前调用，保存还没有保存过的块
+     */
+    void capture(Rect dirty) {
+        if (mPending == null || dirty == null) {
+            return;
+        }
+        mGrid.capture(dirty.left, dirty.top, dirty.right, dirty.bottom, mCaptureVisitor);
+    }
+
+    /**
+     * 结束局部操作并入栈
+     */
+    void commitOperation() {
+        Entry entry = mPending;
+        mPending = null;
+        mPendingTarget = null;
+        if (entry == null) {
+            return;
+        }
+        // 没有修改任何块也要入栈，保证和记录里的擦除一一对应
+        push(entry);
+    }
+
+    void cancelOperation() {
+        mPending = null;
+        mPendingTarget = null;
+    }
+
+    /**
+     * 保存一个完整的检查点，用于整图操作
+     *
+     * @param before 操作之前的图片，交给记录管理， 调用方不能再回收
+     */
+    void checkpoint(Bitmap before, Object tag) {
+        if (before == null || before.isRecycled()) {
+            return;
+        }
+        Entry entry = new Entry(tag);
+        entry.setCheckpoint(before);
+        push(entry);
+    }
+
+    /**
+     * 栈顶是否是 tag 的记录
+     */
+    boolean canUndo(Object tag) {
+        return !mEntryList.isEmpty() && mEntryList.getLast().tag == tag;
+    }
+
+    /**
+     * 栈顶是否是 tag 的检查点
+     */
+    boolean isCheckpoint(Object tag) {
+        return canUndo(tag) && mEntryList.getLast().checkpoint != null;
+    }
+
+    /**
+     * 栈顶是否是 tag 的分块记录
+     */
+    boolean isTiles(Object tag) {
+        return canUndo(tag) && mEntryList.getLast().checkpoint == null;
+    }
+
+    /**
+     * 回退一步
+     *
+     * @return 回退之后的图片，分块记录直接写回 target 并返回 target，
+     * 检查点返回保存的图片（所有权交给调用方）
+     */
+    Bitmap undo(Bitmap target) {
+        if (mEntryList.isEmpty()) {
+            return target;
+        }
+        Entry entry = mEntryList.removeLast();
+        mBytes -= entry.bytes;
+        if (entry.checkpoint != null) {
+            return entry.checkpoint;
+        }
+        entry.restoreInto(target);
+        entry.release();
+        return target;
+    }
+
+    /**
+     * 清空记录
+     */
+    void clear() {
+        cancelOperation();
+        for (Entry entry : mEntryList) {
+            entry.release();
+        }
+        mEntryList.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * 从最旧的开始丢弃到 maxBytes 以内， 最新的一条也可以丢弃， 正在进行中的操作不受影响
+     * 丢掉的记录回退的时候由调用方从记录图片重新加载再重放笔画
+     */
+    void trimToSize(long maxBytes) {
+        while (mBytes > maxBytes && !mEntryList.isEmpty()) {
+            Entry entry = mEntryList.removeFirst();
+            mBytes -= entry.bytes;
+            entry.release();
+        }
+    }
+
+    private void push(Entry entry) {
+        mEntryList.add(entry);
+        mBytes += entry.bytes;
+        trim();
+    }
+
+    /**
+     * 超出上限从最旧的开始丢弃，最新的一条始终保留
+     */
+    private void trim() {
+        while (mBytes > mMaxBytes && mEntryList.size() > 1) {
+            Entry entry = mEntryList.removeFirst();
+            mBytes -= entry.bytes;
+            entry.release();
+        }
+    }
+
+    private static class Entry {
+        private final Object tag;
+        private List<Tile> tiles;
+        private Bitmap checkpoint;
+        private long bytes;
+
+        Entry(Object tag) {
+            this.tag = tag;
+        }
+
+        void addTile(Tile tile) {
+            if (tiles == null) {
+                tiles = new ArrayList<>();
+            }
+            tiles.add(tile);
+            bytes += tile.bitmap.getByteCount();
+        }
+
+        void setCheckpoint(Bitmap bitmap) {
+            checkpoint = bitmap;
+            bytes = bitmap.getByteCount();
+        }
+
+        void restoreInto(Bitmap target) {
+            if (tiles == null || target == null || target.isRecycled()) {
+                return;
+            }
+            Canvas canvas = new Canvas(target);
+            for (Tile tile : tiles) {
+                tile.write(canvas);
+            }
+        }
+
+        void release() {
+            if (checkpoint != null) {
+                BitmapPool.getDefault().put(checkpoint);
+                checkpoint = null;
+            }
+            if (tiles != null) {
+                for (Tile tile : tiles) {
+                    BitmapPool.getDefault().put(tile.bitmap);
+                }
+                tiles = null;
+            }
+        }
+    }
+
+    private static class Tile {
+        /**
+         * 直接按预乘的像素覆盖回去， 避免 getPixels/setPixels 来回转换丢精度
+         */
+        private static final Paint COPY_PAINT = new Paint();
+
+        static {
+            COPY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+
+        private final int x;
+        private final int y;
+        private final Bitmap bitmap;
+
+        private Tile(int x, int y, Bitmap bitmap) {
+            this.x = x;
+            this.y = y;
+            this.bitmap = bitmap;
+        }
+
+        static Tile read(Bitmap source, int x, int y, int width, int height) {
+            Bitmap bitmap = BitmapPool.getDefault().get(width, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawBitmap(source, -x, -y, COPY_PAINT);
+            return new Tile(x, y, bitmap);
+        }
+
+        void write(Canvas canvas) {
+            canvas.drawBitmap(bitmap, x, y, COPY_PAINT);
+        }
+    }
+}
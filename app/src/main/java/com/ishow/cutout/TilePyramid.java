@@ -0,0 +1,561 @@
+package com.ishow.cutout;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.ishow.common.utils.image.ImageUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 放大时的原图分块
+ * <p>
+ * 编辑用的图片只有视图大小， 放大之后是被拉伸的。 放大到图片的一个像素对应多个屏幕像素的时候，
+ * 按当前的缩放从原图里选一层 （inSampleSize 为 2 的幂）， 只用 {@link BitmapRegionDecoder}
+ * 在后台解码看得见的块， 解码好的块放在按字节数限制的 LRU 缓存里。
+ * 还没解码好的块先用缓存里更粗一层的块代替， 都没有的时候就是下面的编辑图片。
+ * <p>
+ * 块的位置都用旋转之后的原图坐标记录， 编辑图片的大小变了也不受影响。
+ * 缓存只在主线程读写， 每一帧都要查很多次， 直接用 long 做键， 不用装箱。
+ */
+class TilePyramid {
+    private static final String TAG = "TilePyramid";
+    /**
+     * 块的边长 （所在层的像素）
+     */
+    private static final int TILE_SIZE = 256;
+    private static final int MAX_LEVEL = 5;
+    /**
+     * 放大倍数和原图对编辑图片的倍数至少要这么大才值得解码
+     */
+    private static final float MIN_GAIN = 1.25F;
+    private static final int MAX_THREADS = 2;
+
+    /**
+     * 解码的线程， close 之后再用到的时候重新创建
+     */
+    private ExecutorService mService;
+    private final Handler mHandler;
+    private final Runnable mOnLoaded;
+    /**
+     * 缓存的块， 最近用过的在链表头
+     */
+    private final LongSparseArray<Tile> mCache;
+    private final int mMaxBytes;
+    private int mCacheBytes;
+    private Tile mNewest;
+    private Tile mOldest;
+    /**
+     * 已经提交还没有回来的块
+     */
+    private final LongSparseArray<Request> mPending;
+
+    private final Paint mPaint;
+    private final Paint mMaskPaint;
+    private final RectF mVisible;
+    private final RectF mTileBounds;
+
+    private volatile Source mSource;
+    /**
+     * 每次换图片加一， 旧图片的块直接丢掉
+     */
+    private volatile int mGeneration;
+    /**
+     * 每画一帧加一， 上一帧没有用到的请求不再解码
+     */
+    private volatile int mStamp;
+
+    /**
+     * @param maxBytes 缓存的块最多占用的内存
+     * @param onLoaded 有新的块解码好的时候在主线程调用
+     */
+    TilePyramid(int maxBytes, Runnable onLoaded) {
+        mOnLoaded = onLoaded;
+        mHandler = new Handler(Looper.getMainLooper());
+        mPending = new LongSparseArray<>();
+        mCache = new LongSparseArray<>();
+        mMaxBytes = maxBytes;
+
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mMaskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+        mVisible = new RectF();
+        mTileBounds = new RectF();
+    }
+
+    /**
+     * 换成新的原图， 只读取尺寸和旋转角度， 解码器在后台第一次用到的时候才创建
+     */
+    void open(String path) {
+        close();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "open: can not decode " + path);
+            return;
+        }
+        mSource = new Source(path, options.outWidth, options.outHeight, ImageUtils.getExifOrientation(path));
+    }
+
+    /**
+     * 丢掉所有的块和还没有开始的请求， 解码的线程也一起退出
+     */
+    void close() {
+        mGeneration++;
+        Source source = mSource;
+        mSource = null;
+        if (source != null) {
+            source.close();
+        }
+        if (mService != null) {
+            mService.shutdownNow();
+            mService = null;
+        }
+        mPending.clear();
+        trimToSize(-1);
+    }
+
+    /**
+     * 只清空缓存， 之后用到的块会重新解码
+     */
+    void trim() {
+        trimToSize(-1);
+    }
+
+    int getByteCount() {
+        return mCacheBytes;
+    }
+
+    /**
+     * 在编辑图片上面画看得见的块
+     * 调用的时候画布已经应用了视图的矩阵， 下面已经画好了编辑图片
+     *
+     * @param inverse 视图矩阵的逆矩阵
+     * @param scale   视图矩阵的缩放
+     */
+    void draw(Canvas canvas, Matrix inverse, float scale, Bitmap photo, int photoLeft, int photoTop,
+              int viewWidth, int viewHeight) {
+        final Source source = mSource;
+        // 没有放大的时候编辑图片已经不比屏幕粗了
+        if (source == null || scale < MIN_GAIN) {
+            return;
+        }
+        final int photoWidth = photo.getWidth();
+        final int photoHeight = photo.getHeight();
+        // 原图对编辑图片的倍数， 以及一个屏幕像素对应的原图像素
+        final float ratio = (float) source.width / photoWidth;
+        final float density = ratio / scale;
+        int level = 0;
+        while (level < MAX_LEVEL && (1 << (level + 1)) <= density) {
+            level++;
+        }
+        final int coarsest = getCoarsestLevel(ratio);
+        if (level > coarsest) {
+            return;
+        }
+
+        mVisible.set(0, 0, viewWidth, viewHeight);
+        inverse.mapRect(mVisible);
+        mVisible.offset(-photoLeft, -photoTop);
+        if (!mVisible.intersect(0, 0, photoWidth, photoHeight)) {
+            return;
+        }
+        mStamp++;
+
+        // 有透明度的时候 （抠过或者擦过）， 块画在图层里， 再用编辑图片的透明度裁一遍
+        final boolean masked = photo.hasAlpha();
+        final int count;
+        if (masked) {
+            count = canvas.saveLayer(mVisible.left + photoLeft, mVisible.top + photoTop,
+                    mVisible.right + photoLeft, mVisible.bottom + photoTop, null, Canvas.ALL_SAVE_FLAG);
+        } else {
+            count = canvas.save();
+        }
+        canvas.translate(photoLeft, photoTop);
+        canvas.scale(1 / ratio, 1 / ratio);
+
+        final int size = TILE_SIZE << level;
+        final int left = (int) (mVisible.left * ratio) / size;
+        final int top = (int) (mVisible.top * ratio) / size;
+        final int right = Math.min((int) Math.ceil(mVisible.right * ratio / size), (source.width + size - 1) / size);
+        final int bottom = Math.min((int) Math.ceil(mVisible.bottom * ratio / size), (source.height + size - 1) / size);
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                final long key = toKey(level, x, y);
+                Tile tile = getTile(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile.bitmap, null, tile.bounds, mPaint);
+                    continue;
+                }
+                request(source, key, level, x, y);
+                drawCoarser(canvas, level, coarsest, x, y);
+            }
+        }
+
+        if (masked) {
+            canvas.scale(ratio, ratio);
+            canvas.drawBitmap(photo, 0, 0, mMaskPaint);
+        }
+        canvas.restoreToCount(count);
+    }
+
+    /**
+     * 块还没有解码好的时候， 找缓存里更粗一层盖住它的块， 只画它覆盖的部分
+     */
+    private void drawCoarser(Canvas canvas, int level, int coarsest, int x, int y) {
+        for (int parent = level + 1; parent <= coarsest; parent++) {
+            final int shift = parent - level;
+            Tile tile = getTile(toKey(parent, x >> shift, y >> shift));
+            if (tile == null) {
+                continue;
+            }
+            final int size = TILE_SIZE << level;
+            mTileBounds.set(x * size, y * size, (x + 1) * size, (y + 1) * size);
+            canvas.save();
+            canvas.clipRect(mTileBounds);
+            canvas.drawBitmap(tile.bitmap, null, tile.bounds, mPaint);
+            canvas.restore();
+            return;
+        }
+    }
+
+    /**
+     * 比编辑图片清晰的最粗的一层
+     */
+    private static int getCoarsestLevel(float ratio) {
+        int level = -1;
+        while (level < MAX_LEVEL && ratio / (1 << (level + 1)) >= MIN_GAIN) {
+            level++;
+        }
+        return level;
+    }
+
+    private void request(Source source, long key, int level, int x, int y) {
+        Request request = mPending.get(key);
+        if (request != null) {
+            // 这一帧还需要， 不要丢掉
+            request.stamp = mStamp;
+            return;
+        }
+        request = new Request(source, key, level, x, y, mGeneration, mStamp);
+        mPending.put(key, request);
+        getService().execute(request);
+    }
+
+    private ExecutorService getService() {
+        if (mService == null) {
+            final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+            mService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return mService;
+    }
+
+    /**
+     * 在主线程接收解码好的块
+     */
+    private void deliver(Request request, Bitmap bitmap, Rect bounds) {
+        if (mPending.get(request.key) == request) {
+            mPending.remove(request.key);
+        }
+        if (bitmap == null) {
+            return;
+        }
+        if (request.generation != mGeneration) {
+            BitmapPool.getDefault().put(bitmap);
+            return;
+        }
+        putTile(new Tile(request.key, bitmap, new RectF(bounds)));
+        mOnLoaded.run();
+    }
+
+    /**
+     * 取缓存的块， 并把它移到链表头
+     */
+    private Tile getTile(long key) {
+        Tile tile = mCache.get(key);
+        if (tile != null && tile != mNewest) {
+            unlink(tile);
+            linkNewest(tile);
+        }
+        return tile;
+    }
+
+    private void putTile(Tile tile) {
+        Tile old = mCache.get(tile.key);
+        if (old != null) {
+            removeTile(old);
+        }
+        mCache.put(tile.key, tile);
+        linkNewest(tile);
+        mCacheBytes += tile.byteCount;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 从最久没用的块开始丢， 直到不超过 maxBytes， -1 的时候全部丢掉
+     */
+    private void trimToSize(int maxBytes) {
+        while (mOldest != null && mCacheBytes > maxBytes) {
+            removeTile(mOldest);
+        }
+    }
+
+    private void removeTile(Tile tile) {
+        mCache.remove(tile.key);
+        unlink(tile);
+        mCacheBytes -= tile.byteCount;
+        BitmapPool.getDefault().put(tile.bitmap);
+    }
+
+    private void linkNewest(Tile tile) {
+        tile.older = mNewest;
+        tile.newer = null;
+        if (mNewest != null) {
+            mNewest.newer = tile;
+        }
+        mNewest = tile;
+        if (mOldest == null) {
+            mOldest = tile;
+        }
+    }
+
+    private void unlink(Tile tile) {
+        if (tile.newer != null) {
+            tile.newer.older = tile.older;
+        } else {
+            mNewest = tile.older;
+        }
+        if (tile.older != null) {
+            tile.older.newer = tile.newer;
+        } else {
+            mOldest = tile.newer;
+        }
+        tile.newer = null;
+        tile.older = null;
+    }
+
+    private static long toKey(int level, int x, int y) {
+        return ((long) level << 58) | ((long) y << 29) | x;
+    }
+
+    private static class Tile {
+        final long key;
+        final Bitmap bitmap;
+        /**
+         * 在旋转之后的原图中的位置
+         */
+        final RectF bounds;
+        final int byteCount;
+        /**
+         * 缓存的 LRU 链表， newer 更靠近链表头
+         */
+        Tile newer;
+        Tile older;
+
+        Tile(long key, Bitmap bitmap, RectF bounds) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.bounds = bounds;
+            this.byteCount = bitmap.getByteCount();
+        }
+    }
+
+    /**
+     * 一张原图和它的解码器， 每个线程最多用一个解码器
+     */
+    private static class Source {
+        final String path;
+        /**
+         * 旋转之后的尺寸
+         */
+        final int width;
+        final int height;
+        final int rawWidth;
+        final int rawHeight;
+        final int degree;
+        private final List<BitmapRegionDecoder> mDecoders;
+        private boolean isClosed;
+
+        Source(String path, int rawWidth, int rawHeight, int degree) {
+            this.path = path;
+            this.rawWidth = rawWidth;
+            this.rawHeight = rawHeight;
+            this.degree = ((degree % 360) + 360) % 360;
+            final boolean swap = this.degree % 180 != 0;
+            width = swap ? rawHeight : rawWidth;
+            height = swap ? rawWidth : rawHeight;
+            mDecoders = new ArrayList<>();
+        }
+
+        synchronized BitmapRegionDecoder acquire() throws IOException {
+            if (isClosed) {
+                return null;
+            }
+            if (!mDecoders.isEmpty()) {
+                return mDecoders.remove(mDecoders.size() - 1);
+            }
+            return BitmapRegionDecoder.newInstance(path, false);
+        }
+
+        synchronized void release(BitmapRegionDecoder decoder) {
+            if (isClosed) {
+                decoder.recycle();
+            } else {
+                mDecoders.add(decoder);
+            }
+        }
+
+        synchronized void close() {
+            isClosed = true;
+            for (BitmapRegionDecoder decoder : mDecoders) {
+                decoder.recycle();
+            }
+            mDecoders.clear();
+        }
+
+        /**
+         * 旋转之后的矩形 -> 文件里的像素矩形， 只有 90 度的倍数， 不会有误差
+         */
+        void toRaw(Rect image, Rect raw) {
+            final int w = rawWidth;
+            final int h = rawHeight;
+            switch (degree) {
+                case 90:
+                    raw.set(image.top, h - image.right, image.bottom, h - image.left);
+                    break;
+                case 180:
+                    raw.set(w - image.right, h - image.bottom, w - image.left, h - image.top);
+                    break;
+                case 270:
+                    raw.set(w - image.bottom, image.left, w - image.top, image.right);
+                    break;
+                default:
+                    raw.set(image);
+                    break;
+            }
+        }
+    }
+
+    private class Request implements Runnable {
+        final Source source;
+        final long key;
+        final int level;
+        final int x;
+        final int y;
+        final int generation;
+        volatile int stamp;
+
+        Request(Source source, long key, int level, int x, int y, int generation, int stamp) {
+            this.source = source;
+            this.key = key;
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.generation = generation;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            final Rect image = new Rect();
+            // 图片换了或者已经滑出了屏幕
+            if (generation == mGeneration && stamp == mStamp) {
+                try {
+                    bitmap = decode(image);
+                } catch (IOException e) {
+                    Log.e(TAG, "decode: " + source.path, e);
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "decode: out of memory", e);
+                }
+            }
+            final Bitmap result = bitmap;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, result, image);
+                }
+            });
+        }
+
+        private Bitmap decode(Rect image) throws IOException {
+            final int size = TILE_SIZE << level;
+            image.set(x * size, y * size, Math.min(source.width, (x + 1) * size), Math.min(source.height, (y + 1) * size));
+            Rect raw = new Rect();
+            source.toRaw(image, raw);
+
+            BitmapRegionDecoder decoder = source.acquire();
+            if (decoder == null) {
+                return null;
+            }
+            Bitmap region;
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = 1 << level;
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                options.inMutable = true;
+                region = decodeReusing(decoder, raw, options);
+            } finally {
+                source.release(decoder);
+            }
+            if (region == null || source.degree == 0) {
+                return region;
+            }
+
+            Matrix matrix = new Matrix();
+            matrix.postRotate(source.degree);
+            Bitmap rotated = Bitmap.createBitmap(region, 0, 0, region.getWidth(), region.getHeight(), matrix, true);
+            if (rotated != region) {
+                BitmapPool.getDefault().put(region);
+            }
+            return rotated;
+        }
+
+        /**
+         * 大小能整除的块 （除了最右和最下的） 解码出来都一样大， 复用池里的图片
+         */
+        private Bitmap decodeReusing(BitmapRegionDecoder decoder, Rect raw, BitmapFactory.Options options) {
+            final int sampleSize = options.inSampleSize;
+            if (raw.width() % sampleSize == 0 && raw.height() % sampleSize == 0) {
+                options.inBitmap = BitmapPool.getDefault().getForDecode(raw.width() / sampleSize,
+                        raw.height() / sampleSize, options.inPreferredConfig);
+            }
+            if (options.inBitmap != null) {
+                try {
+                    return decoder.decodeRegion(raw, options);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "decode: can not reuse bitmap", e);
+                    BitmapPool.getDefault().put(options.inBitmap);
+                    options.inBitmap = null;
+                }
+            }
+            return decoder.decodeRegion(raw, options);
+        }
+    }
+}
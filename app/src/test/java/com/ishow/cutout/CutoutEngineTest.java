@@ -0,0 +1,155 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 不依赖界面的抠图和批量处理
+ */
+public class CutoutEngineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int COLOR = 0xFF336699;
+
+    @Test
+    public void lassoKeepsInsideOnly() {
+        int[] pixels = image();
+        CutoutEngine engine = new CutoutEngine(new ParallelBands(1));
+        engine.setFeatherRadius(0);
+        engine.apply(pixels, WIDTH, HEIGHT, new CutoutEngine.Operations().lasso(10, 10, 30, 10, 30, 30, 10, 30));
+
+        assertEquals(COLOR, pixels[20 * WIDTH + 20]);
+        assertEquals(0, pixels[5 * WIDTH + 5]);
+        assertEquals(0, pixels[20 * WIDTH + 40]);
+    }
+
+    @Test
+    public void featherSoftensEdgeButKeepsCenter() {
+        int[] pixels = image();
+        CutoutEngine engine = new CutoutEngine(new ParallelBands(2));
+        engine.setFeatherRadius(4);
+        engine.apply(pixels, WIDTH, HEIGHT, new CutoutEngine.Operations().lasso(8, 8, 56, 8, 56, 40, 8, 40));
+
+        assertEquals(COLOR, pixels[24 * WIDTH + 32]);
+        final int edge = pixels[24 * WIDTH + 8] >>> 24;
+        assertTrue(edge > 0 && edge < 255);
+        // 羽化只改透明度
+        assertEquals(COLOR & 0xFFFFFF, pixels[24 * WIDTH + 8] & 0xFFFFFF);
+    }
+
+    @Test
+    public void erasersClearCoveredPixels() {
+        int[] pixels = image();
+        CutoutEngine engine = new CutoutEngine(new ParallelBands(1));
+        engine.apply(pixels, WIDTH, HEIGHT, new CutoutEngine.Operations()
+                .erase(6, 0, 20, 63, 20)
+                .eraseRect(40, 30, 50, 40));
+
+        assertEquals(0, pixels[20 * WIDTH + 32]);
+        assertEquals(COLOR, pixels[10 * WIDTH + 32]);
+        assertEquals(0, pixels[30 * WIDTH + 40]);
+        assertEquals(0, pixels[39 * WIDTH + 49]);
+        assertEquals(COLOR, pixels[40 * WIDTH + 49]);
+        assertEquals(COLOR, pixels[39 * WIDTH + 50]);
+    }
+
+    @Test
+    public void operationsRunInOrder() {
+        // 先擦除再抠图和先抠图再擦除结果一样， 都是透明度相乘
+        CutoutEngine engine = new CutoutEngine(new ParallelBands(1));
+        engine.setFeatherRadius(2);
+        int[] first = image();
+        engine.apply(first, WIDTH, HEIGHT, new CutoutEngine.Operations()
+                .lasso(4, 4, 60, 4, 60, 44, 4, 44).erase(8, 10, 10, 50, 30));
+        int[] second = image();
+        engine.apply(second, WIDTH, HEIGHT, new CutoutEngine.Operations()
+                .erase(8, 10, 10, 50, 30).lasso(4, 4, 60, 4, 60, 44, 4, 44));
+        assertEquals(Arrays.toString(first), Arrays.toString(second));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddPointCount() {
+        new CutoutEngine.Operations().lasso(1, 2, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallPixelArray() {
+        new CutoutEngine(new ParallelBands(1)).apply(new int[10], WIDTH, HEIGHT, new CutoutEngine.Operations());
+    }
+
+    @Test
+    public void batchProcessesEveryTaskAndReportsFailures() throws InterruptedException {
+        List<CutoutBatch.Task> tasks = new ArrayList<>();
+        final List<int[]> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final boolean broken = i == 3;
+            tasks.add(new CutoutBatch.Task() {
+                @Override
+                public int getWidth() {
+                    return WIDTH;
+                }
+
+                @Override
+                public int getHeight() {
+                    return HEIGHT;
+                }
+
+                @Override
+                public void read(int[] pixels) throws Exception {
+                    if (broken) {
+                        throw new Exception("broken");
+                    }
+                    Arrays.fill(pixels, COLOR);
+                }
+
+                @Override
+                public CutoutEngine.Operations getOperations() {
+                    return new CutoutEngine.Operations().eraseRect(0, 0, 10, 10);
+                }
+
+                @Override
+                public void write(int[] pixels, int width, int height) {
+                    synchronized (results) {
+                        results.add(Arrays.copyOf(pixels, pixels.length));
+                    }
+                }
+            });
+        }
+
+        final int[] finished = new int[1];
+        // 额度只够同时处理一张
+        CutoutBatch batch = new CutoutBatch(3, WIDTH * HEIGHT * 8);
+        batch.setListener(new CutoutBatch.Listener() {
+            @Override
+            public void onFinished(CutoutBatch.Task task, Throwable error) {
+                synchronized (finished) {
+                    finished[0]++;
+                }
+            }
+        });
+        Iterator<CutoutBatch.Task> iterator = tasks.iterator();
+        assertEquals(1, batch.run(iterator));
+        batch.shutdown();
+
+        assertEquals(6, finished[0]);
+        assertEquals(5, results.size());
+        for (int[] pixels : results) {
+            assertEquals(0, pixels[5 * WIDTH + 5]);
+            assertEquals(COLOR, pixels[20 * WIDTH + 20]);
+        }
+    }
+
+    private static int[] image() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, COLOR);
+        return pixels;
+    }
+}
@@ -0,0 +1,108 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 魔棒的区域填充
+ */
+public class FloodFillTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+
+    @Test
+    public void fillsConnectedRegionOnly() {
+        // 蓝色的竖线把图片分成左右两半
+        final int width = 20;
+        final int height = 10;
+        int[] pixels = image(width, height, RED);
+        for (int y = 0; y < height; y++) {
+            pixels[y * width + 8] = BLUE;
+        }
+        byte[] mask = new byte[width * height];
+        FloodFill fill = new FloodFill();
+        assertEquals(8 * height, fill.fill(pixels, width, height, 2, 3, mask));
+        assertEquals(0, fill.getLeft());
+        assertEquals(0, fill.getTop());
+        assertEquals(8, fill.getRight());
+        assertEquals(height, fill.getBottom());
+        assertEquals(255, mask[3 * width + 7] & 0xFF);
+        assertEquals(0, mask[3 * width + 9] & 0xFF);
+    }
+
+    @Test
+    public void toleranceDecidesSimilarColors() {
+        final int width = 4;
+        final int height = 1;
+        int[] pixels = {RED, 0xFFF00000, 0xFFC00000, RED};
+        byte[] mask = new byte[width];
+        FloodFill fill = new FloodFill();
+        fill.setTolerance(16);
+        assertEquals(2, fill.fill(pixels, width, height, 0, 0, mask));
+
+        Arrays.fill(mask, (byte) 0);
+        fill.setTolerance(64);
+        assertEquals(4, fill.fill(pixels, width, height, 0, 0, mask));
+    }
+
+    @Test
+    public void transparentSeedDoesNothing() {
+        int[] pixels = image(4, 4, 0x00FFFFFF);
+        byte[] mask = new byte[16];
+        FloodFill fill = new FloodFill();
+        assertEquals(0, fill.fill(pixels, 4, 4, 1, 1, mask));
+        assertEquals(0, fill.fill(pixels, 4, 4, -1, 1, mask));
+        assertEquals(0, fill.getRight());
+    }
+
+    @Test
+    public void smallStackStillFillsSpiral() {
+        // 蛇形的通道， 栈很小的时候会溢出， 靠重新扫描补全
+        final int width = 41;
+        final int height = 41;
+        int[] pixels = image(width, height, RED);
+        int expected = width * height;
+        for (int x = 1; x < width - 1; x += 2) {
+            final boolean fromTop = (x / 2) % 2 == 0;
+            for (int y = 0; y < height - 1; y++) {
+                pixels[(fromTop ? y : y + 1) * width + x] = BLUE;
+                expected--;
+            }
+        }
+        byte[] expectedMask = new byte[width * height];
+        new FloodFill().fill(pixels, width, height, 0, 0, expectedMask);
+
+        byte[] mask = new byte[width * height];
+        assertEquals(expected, new FloodFill(2).fill(pixels, width, height, 0, 0, mask));
+        assertEquals(Arrays.toString(expectedMask), Arrays.toString(mask));
+    }
+
+    @Test
+    public void spansDescribeFilledPixels() {
+        final int width = 6;
+        final int height = 2;
+        int[] pixels = image(width, height, RED);
+        pixels[2] = BLUE;
+        pixels[width + 2] = BLUE;
+        pixels[width + 3] = BLUE;
+        byte[] mask = new byte[width * height];
+        FloodFill fill = new FloodFill();
+        fill.fill(pixels, width, height, 0, 0, mask);
+
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_WAND, 0, 255);
+        fill.writeSpans(mask, width, log);
+        float[] points = Arrays.copyOf(log.getPoints(), log.getTotalPointCount() * 2);
+        assertEquals(Arrays.toString(new float[]{0, 0, 2, 1, 0, 1, 2, 2}), Arrays.toString(points));
+    }
+
+    private static int[] image(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+}
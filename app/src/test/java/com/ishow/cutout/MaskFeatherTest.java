@@ -0,0 +1,80 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 蒙版羽化
+ */
+public class MaskFeatherTest {
+
+    @Test
+    public void boxRadiiMatchSigma() {
+        final float[] radii = {2, 10, 50, 300};
+        for (float radius : radii) {
+            final float sigma = MaskFeather.radiusToSigma(radius);
+            double variance = 0;
+            for (int r : MaskFeather.boxRadii(radius)) {
+                final int size = r * 2 + 1;
+                variance += (size * size - 1) / 12d;
+            }
+            assertEquals(sigma * sigma, variance, sigma * sigma * 0.1 + 1);
+        }
+    }
+
+    @Test
+    public void zeroRadiusLeavesMaskUntouched() {
+        byte[] pixels = {0, (byte) 255, 7, 0};
+        new MaskFeather(new ParallelBands(1)).blur(pixels, 2, 2, 2, 0);
+        assertArrayEquals(new byte[]{0, (byte) 255, 7, 0}, pixels);
+    }
+
+    @Test
+    public void coveredInteriorStaysOpaqueAtLargeRadii() {
+        final float[] radii = {124, 400, 1000};
+        for (float radius : radii) {
+            final int extent = MaskFeather.getExtent(radius);
+            final int size = extent * 2 + 16;
+            byte[] pixels = new byte[size * size];
+            Arrays.fill(pixels, (byte) 255);
+            new MaskFeather(new ParallelBands(4)).blur(pixels, size, size, size, radius);
+
+            for (int y = extent; y < size - extent; y++) {
+                for (int x = extent; x < size - extent; x++) {
+                    assertEquals("radius " + radius + " at " + x + "," + y, 255, pixels[y * size + x] & 0xFF);
+                }
+            }
+            // 边上被外面的 0 拉低
+            assertTrue((pixels[0] & 0xFF) < 255);
+        }
+    }
+
+    @Test
+    public void edgeIsSymmetricAndMonotonic() {
+        final int width = 200;
+        final int height = 40;
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 50; x < 150; x++) {
+                pixels[y * width + x] = (byte) 255;
+            }
+        }
+        new MaskFeather(new ParallelBands(1)).blur(pixels, width, height, width, 10);
+
+        final int row = height / 2 * width;
+        for (int x = 0; x < width / 2; x++) {
+            assertEquals(pixels[row + x], pixels[row + width - 1 - x]);
+            if (x > 0) {
+                assertTrue((pixels[row + x] & 0xFF) >= (pixels[row + x - 1] & 0xFF));
+            }
+        }
+        assertEquals(255, pixels[row + 100] & 0xFF);
+        assertEquals(0, pixels[row] & 0xFF);
+    }
+}
@@ -0,0 +1,113 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 闭合多边形的扫描线填充
+ */
+public class PolygonRasterizerTest {
+    private static final int SIZE = 32;
+
+    @Test
+    public void alignedRectangleIsExact() {
+        byte[] mask = fill(new PolygonRasterizer(), new float[]{4, 4, 12, 4, 12, 10, 4, 10});
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                final boolean inside = x >= 4 && x < 12 && y >= 4 && y < 10;
+                assertEquals(x + "," + y, inside ? 255 : 0, mask[y * SIZE + x] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void partialPixelsAreAntiAliased() {
+        // 左右两边各占半个像素
+        byte[] mask = fill(new PolygonRasterizer(), new float[]{4.5f, 4, 8.5f, 4, 8.5f, 8, 4.5f, 8});
+        assertEquals(128, mask[5 * SIZE + 4] & 0xFF);
+        assertEquals(255, mask[5 * SIZE + 6] & 0xFF);
+        assertEquals(128, mask[5 * SIZE + 8] & 0xFF);
+        assertEquals(0, mask[5 * SIZE + 9] & 0xFF);
+    }
+
+    @Test
+    public void coverageSumMatchesArea() {
+        // 直角三角形， 面积 200
+        byte[] mask = fill(new PolygonRasterizer(), new float[]{2, 2, 22, 2, 2, 22});
+        assertEquals(200, sum(mask) / 255.0, 0.5);
+    }
+
+    @Test
+    public void fillTypeDecidesOverlap() {
+        // 同方向绕两圈的正方形： 非零环绕全部填充， 奇偶规则中间是空的
+        final float[] points = {4, 4, 20, 4, 20, 20, 4, 20, 4, 4, 20, 4, 20, 20, 4, 20};
+        PolygonRasterizer rasterizer = new PolygonRasterizer();
+        assertEquals(255, fill(rasterizer, points)[10 * SIZE + 10] & 0xFF);
+
+        rasterizer.setFillType(PolygonRasterizer.FILL_EVEN_ODD);
+        assertEquals(0, fill(rasterizer, points)[10 * SIZE + 10] & 0xFF);
+    }
+
+    @Test
+    public void transformAndClipping() {
+        PolygonRasterizer rasterizer = new PolygonRasterizer();
+        // 放大两倍再平移， 超出蒙版的部分被裁掉
+        rasterizer.setTransform(2, 2, 20, -4);
+        byte[] mask = fill(rasterizer, new float[]{0, 0, 10, 0, 10, 10, 0, 10});
+        assertEquals(255, mask[0 * SIZE + 20] & 0xFF);
+        assertEquals(255, mask[15 * SIZE + 31] & 0xFF);
+        assertEquals(0, mask[16 * SIZE + 20] & 0xFF);
+        assertEquals(0, mask[0 * SIZE + 19] & 0xFF);
+        assertEquals(12 * 16 * 255, sum(mask));
+    }
+
+    @Test
+    public void fillOverExistingCoverageUsesSrcOver() {
+        PolygonRasterizer rasterizer = new PolygonRasterizer();
+        byte[] mask = new byte[SIZE * SIZE];
+        final float[] half = {4.5f, 4, 5, 4, 5, 5, 4.5f, 5};
+        rasterizer.fill(half, 0, 4, mask, SIZE, SIZE, SIZE);
+        rasterizer.fill(half, 0, 4, mask, SIZE, SIZE, SIZE);
+        // 0.5 + 0.5 * (1 - 0.5)
+        assertEquals(192, mask[4 * SIZE + 4] & 0xFF, 1);
+    }
+
+    @Test
+    public void degenerateInputIsIgnored() {
+        PolygonRasterizer rasterizer = new PolygonRasterizer();
+        assertEquals(0, sum(fill(rasterizer, new float[]{1, 1, 9, 9})));
+        assertEquals(0, sum(fill(rasterizer, new float[]{1, 1, 9, 1, 20, 1})));
+        assertEquals(0, sum(fill(rasterizer, new float[]{-20, -20, -10, -20, -10, -10})));
+    }
+
+    @Test
+    public void growsPastInitialEdgeCapacity() {
+        final int count = 500;
+        float[] points = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            final double angle = Math.PI * 2 * i / count;
+            points[i * 2] = 16 + (float) Math.cos(angle) * 12;
+            points[i * 2 + 1] = 16 + (float) Math.sin(angle) * 12;
+        }
+        byte[] mask = fill(new PolygonRasterizer(), points);
+        assertEquals(255, mask[16 * SIZE + 16] & 0xFF);
+        assertTrue(Math.abs(sum(mask) / 255.0 - Math.PI * 144) < 2);
+    }
+
+    private static byte[] fill(PolygonRasterizer rasterizer, float[] points) {
+        byte[] mask = new byte[SIZE * SIZE];
+        rasterizer.fill(points, 0, points.length / 2, mask, SIZE, SIZE, SIZE);
+        return mask;
+    }
+
+    private static long sum(byte[] mask) {
+        long sum = 0;
+        for (byte value : mask) {
+            sum += value & 0xFF;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,140 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 笔画记录
+ */
+public class StrokeLogTest {
+
+    @Test
+    public void keepsStrokeAttributesAndPoints() {
+        StrokeLog log = new StrokeLog();
+        assertTrue(log.isEmpty());
+        assertEquals(0, log.getLastTool());
+
+        assertEquals(0, log.beginStroke(StrokeLog.TOOL_TRACK, 4, 255));
+        log.addPoint(1, 2);
+        log.addPoint(3, 4);
+        assertEquals(1, log.beginStroke(StrokeLog.TOOL_ERASER, 20, 128));
+        log.addPoint(5, 6);
+
+        assertEquals(2, log.getStrokeCount());
+        assertEquals(3, log.getTotalPointCount());
+        assertEquals(StrokeLog.TOOL_ERASER, log.getLastTool());
+        assertEquals(20f, log.getWidth(1), 0);
+        assertEquals(128, log.getAlpha(1));
+        assertEquals(2, log.getPointCount(0));
+        assertEquals(1, log.getPointCount(1));
+        assertEquals(4, log.getPointOffset(1));
+        assertEquals(5f, log.getPoints()[log.getPointOffset(1)], 0);
+        assertEquals(1, log.indexOfTool(StrokeLog.TOOL_ERASER));
+        assertEquals(-1, log.indexOfTool(StrokeLog.TOOL_WAND));
+        assertEquals(1, log.countOfTool(StrokeLog.TOOL_TRACK));
+    }
+
+    @Test
+    public void growsPastDefaultCapacity() {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < 20; i++) {
+            log.beginStroke(StrokeLog.TOOL_ERASER, i, 255);
+            for (int j = 0; j < 100; j++) {
+                log.addPoint(i, j);
+            }
+        }
+        assertEquals(20, log.getStrokeCount());
+        assertEquals(2000, log.getTotalPointCount());
+        float[] points = log.getPoints();
+        int offset = log.getPointOffset(19);
+        assertEquals(19f, points[offset + 99 * 2], 0);
+        assertEquals(99f, points[offset + 99 * 2 + 1], 0);
+        assertEquals(19f, log.getWidth(19), 0);
+    }
+
+    @Test
+    public void truncateDropsLaterStrokesAndPoints() {
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_TRACK, 1, 255);
+        log.addPoint(0, 0);
+        log.beginStroke(StrokeLog.TOOL_TRACK, 1, 255);
+        log.addPoint(1, 1);
+        log.addPoint(2, 2);
+
+        log.truncate(5);
+        assertEquals(2, log.getStrokeCount());
+        log.truncate(1);
+        assertEquals(1, log.getStrokeCount());
+        assertEquals(1, log.getTotalPointCount());
+
+        // 回退之后继续画， 新的点接在后面
+        log.beginStroke(StrokeLog.TOOL_LASSO, 0, 255);
+        log.addPoint(7, 8);
+        assertEquals(1, log.getPointCount(1));
+        assertEquals(7f, log.getPoints()[log.getPointOffset(1)], 0);
+
+        log.clear();
+        assertTrue(log.isEmpty());
+        assertEquals(0, log.getTotalPointCount());
+    }
+
+    @Test
+    public void copiesStrokesFromLogAndBuffer() {
+        StrokeLog source = new StrokeLog();
+        source.beginStroke(StrokeLog.TOOL_TRACK, 1, 255);
+        source.addPoint(9, 9);
+        source.beginStroke(StrokeLog.TOOL_TRACK, 1, 255);
+        source.addPoint(1, 2);
+        source.addPoint(3, 4);
+
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_LASSO, 0, 255);
+        log.addPoints(source, 1);
+        log.addPoints(FloatBuffer.wrap(new float[]{5, 6, 7, 8}), 2);
+
+        float[] points = new float[8];
+        System.arraycopy(log.getPoints(), log.getPointOffset(0), points, 0, 8);
+        assertArrayEquals(new float[]{1, 2, 3, 4, 5, 6, 7, 8}, points, 0);
+    }
+
+    @Test
+    public void scaleAppliesToPointsAndWidths() {
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_ERASER, 10, 255);
+        log.addPoint(2, 4);
+        log.scale(0.5f);
+        assertEquals(5f, log.getWidth(0), 0);
+        assertEquals(1f, log.getPoints()[0], 0);
+        assertEquals(2f, log.getPoints()[1], 0);
+    }
+
+    @Test
+    public void replayVisitsStrokesInOrder() {
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_TRACK, 1, 255);
+        log.addPoint(0, 0);
+        log.beginStroke(StrokeLog.TOOL_WAND, 0, 255);
+        log.addPoint(1, 1);
+        log.addPoint(2, 2);
+
+        final StringBuilder visited = new StringBuilder();
+        log.replay(new StrokeLog.Visitor() {
+            @Override
+            public void onStroke(int tool, float width, int alpha, float[] points, int offset, int count) {
+                visited.append(tool).append(':').append(offset).append(':').append(count).append(' ');
+            }
+        });
+        assertEquals("1:0:1 4:2:2 ", visited.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addPointNeedsStroke() {
+        new StrokeLog().addPoint(0, 0);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ishow.cutout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 抠图和擦除的 ACTION_MOVE 每个点都会经过 StrokeSimplifier 和 StrokeLog，
+ * 容量够的时候这两步不能有任何堆分配。
+ * <p>
+ * 只覆盖这两个纯 Java 的部分， CutoutView 的 onTouchEvent、 手势和 onDraw 依赖 android.graphics，
+ * 不在这个测试的范围里。
+ * <p>
+ * 用 HotSpot 的 ThreadMXBean 统计当前线程分配的字节数， 不支持的 JVM 上跳过。
+ */
+public class StrokeRecordAllocationTest {
+    private static final int EVENT_COUNT = 100000;
+    /**
+     * 统计本身可能有的少量开销， 远小于每个点分配一次的量
+     */
+    private static final long SLACK_BYTES = 1024;
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void simplifyAndRecordDoNotAllocate() {
+        StrokeSimplifier simplifier = new StrokeSimplifier(2);
+        StrokeLog log = new StrokeLog();
+        // 先跑一遍， 让数组长到足够大并且让 JIT 编译完
+        for (int i = 0; i < 5; i++) {
+            drawStroke(simplifier, log);
+        }
+
+        final long id = Thread.currentThread().getId();
+        final long before = mThreadBean.getThreadAllocatedBytes(id);
+        drawStroke(simplifier, log);
+        final long allocated = mThreadBean.getThreadAllocatedBytes(id) - before;
+
+        assertTrue("allocated " + allocated + " bytes for " + EVENT_COUNT + " points", allocated < SLACK_BYTES);
+    }
+
+    /**
+     * 按 CutoutView 记录一笔的顺序： 先开始一笔， 之后每个点先简化再记录
+     */
+    private static void drawStroke(StrokeSimplifier simplifier, StrokeLog log) {
+        log.clear();
+        log.beginStroke(StrokeLog.TOOL_ERASER, 20, 255);
+        log.addPoint(0, 0);
+        simplifier.begin(0, 0);
+        for (int i = 1; i < EVENT_COUNT; i++) {
+            final float x = i * 0.7f;
+            final float y = (float) Math.sin(i * 0.05) * 40;
+            if (simplifier.add(x, y)) {
+                log.addPoint(simplifier.getX(), simplifier.getY());
+            }
+        }
+        if (simplifier.finish()) {
+            log.addPoint(simplifier.getX(), simplifier.getY());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 轨迹的流式简化： 输出的折线离每个输入的点都不能超过容差
+ */
+public class StrokeSimplifierTest {
+
+    @Test
+    public void slowSemicircleStaysWithinTolerance() {
+        // 半径 50， 每 0.5 像素一个点， 容差 2
+        float[] points = arc(50, 0.5f);
+        float[] simplified = simplify(points, 2);
+        assertTrue(simplified.length / 2 > 2);
+        assertDeviation(points, simplified, 2);
+    }
+
+    @Test
+    public void denseArcsStayWithinTolerance() {
+        final float[] radii = {5, 20, 50, 200};
+        final float[] steps = {0.05f, 0.1f, 0.5f, 1, 3};
+        final float[] tolerances = {0.5f, 2, 4};
+        for (float radius : radii) {
+            for (float step : steps) {
+                for (float tolerance : tolerances) {
+                    float[] points = arc(radius, step);
+                    assertDeviation(points, simplify(points, tolerance), tolerance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void jitteryLineStaysWithinTolerance() {
+        Random random = new Random(17);
+        float[] points = new float[2000 * 2];
+        for (int i = 0; i < 2000; i++) {
+            points[i * 2] = i * 0.2f + random.nextFloat() - 0.5f;
+            points[i * 2 + 1] = (float) Math.sin(i * 0.01) * 30 + random.nextFloat() - 0.5f;
+        }
+        assertDeviation(points, simplify(points, 2), 2);
+    }
+
+    @Test
+    public void straightLineKeepsEndpoints() {
+        float[] points = new float[100 * 2];
+        for (int i = 0; i < 100; i++) {
+            points[i * 2] = i * 3;
+            points[i * 2 + 1] = i * 3;
+        }
+        float[] simplified = simplify(points, 2);
+        assertTrue(simplified.length / 2 < 10);
+        assertEquals(297f, simplified[simplified.length - 2], 0);
+        assertEquals(297f, simplified[simplified.length - 1], 0);
+    }
+
+    /**
+     * 从 (radius, 0) 逆时针到 (-radius, 0) 的半圆， 相邻的点相距 step
+     */
+    private static float[] arc(float radius, float step) {
+        final int count = (int) (Math.PI * radius / step);
+        float[] points = new float[(count + 1) * 2];
+        for (int i = 0; i <= count; i++) {
+            final double angle = Math.PI * i / count;
+            points[i * 2] = (float) (radius * Math.cos(angle));
+            points[i * 2 + 1] = (float) (radius * Math.sin(angle));
+        }
+        return points;
+    }
+
+    private static float[] simplify(float[] points, float tolerance) {
+        StrokeSimplifier simplifier = new StrokeSimplifier(tolerance);
+        float[] result = new float[points.length];
+        int count = 0;
+        result[count++] = points[0];
+        result[count++] = points[1];
+        simplifier.begin(points[0], points[1]);
+        for (int i = 2; i < points.length; i += 2) {
+            if (simplifier.add(points[i], points[i + 1])) {
+                result[count++] = simplifier.getX();
+                result[count++] = simplifier.getY();
+            }
+        }
+        if (simplifier.finish()) {
+            result[count++] = simplifier.getX();
+            result[count++] = simplifier.getY();
+        }
+        float[] trimmed = new float[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private static void assertDeviation(float[] points, float[] simplified, float tolerance) {
+        for (int i = 0; i < points.length; i += 2) {
+            double best = Double.MAX_VALUE;
+            for (int j = 0; j + 3 < simplified.length; j += 2) {
+                best = Math.min(best, distance(points[i], points[i + 1],
+                        simplified[j], simplified[j + 1], simplified[j + 2], simplified[j + 3]));
+            }
+            if (simplified.length == 2) {
+                best = Math.hypot(points[i] - simplified[0], points[i + 1] - simplified[1]);
+            }
+            // 留一点浮点误差
+            assertTrue("point " + i / 2 + " is " + best + " away, tolerance " + tolerance,
+                    best <= tolerance + 1e-3);
+        }
+    }
+
+    /**
+     * 点到线段的距离
+     */
+    private static double distance(double px, double py, double ax, double ay, double bx, double by) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double lengthSquare = dx * dx + dy * dy;
+        double t = lengthSquare == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquare;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+    }
+}
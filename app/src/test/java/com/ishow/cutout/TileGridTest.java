@@ -0,0 +1,66 @@
+package com.ishow.cutout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 分块回退的块记账
+ */
+public class TileGridTest {
+
+    @Test
+    public void capturesEachTileOncePerOperation() {
+        TileGrid grid = new TileGrid(100);
+        grid.reset(250, 120);
+        assertEquals(3, grid.getColumns());
+        assertEquals(2, grid.getRows());
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, grid.capture(50, 50, 150, 90, recorder));
+        // 和上一次重叠的部分不再保存
+        assertEquals(1, grid.capture(120, 50, 210, 90, recorder));
+        assertEquals(0, grid.capture(0, 0, 250, 100, recorder));
+        assertEquals("0,0,100,100 100,0,100,100 200,0,50,100 ", recorder.toString());
+
+        // 新的操作重新开始
+        grid.reset(250, 120);
+        recorder.tiles.clear();
+        assertEquals(1, grid.capture(210, 110, 260, 140, recorder));
+        assertEquals("200,100,50,20 ", recorder.toString());
+    }
+
+    @Test
+    public void clipsToImageAndIgnoresEmptyRects() {
+        TileGrid grid = new TileGrid(64);
+        Recorder recorder = new Recorder();
+        assertEquals(0, grid.capture(0, 0, 10, 10, recorder));
+
+        grid.reset(128, 128);
+        assertEquals(0, grid.capture(10, 10, 10, 40, recorder));
+        assertEquals(4, grid.capture(-50, -50, 500, 500, recorder));
+        assertEquals(0, grid.capture(-50, -50, 500, 500, recorder));
+    }
+
+    private static class Recorder implements TileGrid.Visitor {
+        private final List<String> tiles = new ArrayList<>();
+
+        @Override
+        public void onTile(int x, int y, int width, int height) {
+            tiles.add(x + "," + y + "," + width + "," + height);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String tile : tiles) {
+                builder.append(tile).append(' ');
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ishow.cutout;
+
+import java.util.Random;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 基准测试用的数据
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * 按百万像素算出 4:3 图片的宽高
+     */
+    static int[] imageSize(int megapixels) {
+        final int width = (int) Math.round(Math.sqrt(megapixels * 1000000d * 4 / 3));
+        final int height = (int) ((long) megapixels * 1000000 / width);
+        return new int[]{width, height};
+    }
+
+    /**
+     * 生成一段像手指画出来的轨迹： 绕着图片中心的一圈， 带一些抖动
+     *
+     * @param count 点的数量
+     * @return x0, y0, x1, y1 ...
+     */
+    static float[] lasso(int width, int height, int count, long seed) {
+        Random random = new Random(seed);
+        final float cx = width / 2f;
+        final float cy = height / 2f;
+        final float rx = width * 0.35f;
+        final float ry = height * 0.35f;
+        float[] points = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            final double angle = Math.PI * 2 * i / count;
+            final float jitter = 1 + (random.nextFloat() - 0.5f) * 0.02f;
+            points[i * 2] = cx + (float) Math.cos(angle) * rx * jitter;
+            points[i * 2 + 1] = cy + (float) Math.sin(angle) * ry * jitter;
+        }
+        return points;
+    }
+
+    /**
+     * 生成 strokeCount 笔， 每笔 pointCount 个点
+     */
+    static StrokeLog strokeLog(int width, int height, int strokeCount, int pointCount) {
+        StrokeLog log = new StrokeLog();
+        log.beginStroke(StrokeLog.TOOL_LASSO, 0, 255);
+        addPoints(log, lasso(width, height, pointCount, 0));
+        for (int i = 1; i < strokeCount; i++) {
+            log.beginStroke(StrokeLog.TOOL_ERASER, 30, 255);
+            addPoints(log, lasso(width / 4, height / 4, pointCount, i));
+        }
+        return log;
+    }
+
+    /**
+     * 闭合轨迹的抗锯齿蒙版
+     */
+    static byte[] lassoMask(int width, int height, int count) {
+        final float[] points = lasso(width, height, count, 0);
+        byte[] mask = new byte[width * height];
+        new PolygonRasterizer().fill(points, 0, count, mask, width, height, width);
+        return mask;
+    }
+
+    /**
+     * 随机的 ARGB 像素
+     */
+    static int[] pixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static void addPoints(StrokeLog log, float[] points) {
+        for (int i = 0; i < points.length; i += 2) {
+            log.addPoint(points[i], points[i + 1]);
+        }
+    }
+}
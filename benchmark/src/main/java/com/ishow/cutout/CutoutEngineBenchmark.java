@@ -0,0 +1,113 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 不依赖界面的抠图： 单张图片 （一次抠图加几笔擦除） 和批量处理的吞吐量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CutoutEngineBenchmark {
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"1", "4"})
+    public int megapixels;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mSource;
+    private int[] mPixels;
+    private CutoutEngine mEngine;
+    private CutoutEngine.Operations mOperations;
+    private CutoutBatch mBatch;
+    private List<CutoutBatch.Task> mTasks;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        mSource = BenchmarkData.pixels(mWidth * mHeight, 0);
+        mPixels = new int[mSource.length];
+
+        mOperations = new CutoutEngine.Operations();
+        mOperations.lasso(BenchmarkData.lasso(mWidth, mHeight, 1024, 0));
+        for (int i = 0; i < 8; i++) {
+            mOperations.erase(mWidth / 40f, BenchmarkData.lasso(mWidth / 4, mHeight / 4, 64, i + 1));
+        }
+        mEngine = new CutoutEngine(new ParallelBands(threads));
+
+        mBatch = new CutoutBatch(threads, 256L * 1024 * 1024);
+        mTasks = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mTasks.add(new CutoutBatch.Task() {
+                @Override
+                public int getWidth() {
+                    return mWidth;
+                }
+
+                @Override
+                public int getHeight() {
+                    return mHeight;
+                }
+
+                @Override
+                public void read(int[] pixels) {
+                    System.arraycopy(mSource, 0, pixels, 0, mSource.length);
+                }
+
+                @Override
+                public CutoutEngine.Operations getOperations() {
+                    return mOperations;
+                }
+
+                @Override
+                public void write(int[] pixels, int width, int height) {
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBatch.shutdown();
+    }
+
+    @Benchmark
+    public int[] apply() {
+        System.arraycopy(mSource, 0, mPixels, 0, mSource.length);
+        mEngine.apply(mPixels, mWidth, mHeight, mOperations);
+        return mPixels;
+    }
+
+    /**
+     * 一批 {@link #BATCH_SIZE} 张
+     */
+    @Benchmark
+    public int batch() throws InterruptedException {
+        return mBatch.run(mTasks.iterator());
+    }
+}
@@ -0,0 +1,65 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 魔棒填充： 纯色背景加上闭合轨迹里的前景， 背景带少量噪点
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodFillBenchmark {
+    @Param({"1", "4"})
+    public int megapixels;
+
+    /**
+     * 栈的容量， 小的时候会走溢出之后重新扫描的路径
+     */
+    @Param({"64", "4096"})
+    public int stackCapacity;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private byte[] mMask;
+    private FloodFill mFloodFill;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        final byte[] foreground = BenchmarkData.lassoMask(mWidth, mHeight, 1024);
+        final int[] noise = BenchmarkData.pixels(mWidth * mHeight, 0);
+        mPixels = new int[mWidth * mHeight];
+        for (int i = 0; i < mPixels.length; i++) {
+            final int gray = foreground[i] != 0 ? 0x40 : 0xE0 + (noise[i] & 0x0F);
+            mPixels[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+        }
+        mMask = new byte[mWidth * mHeight];
+        mFloodFill = new FloodFill(stackCapacity);
+    }
+
+    @Benchmark
+    public int fill() {
+        Arrays.fill(mMask, (byte) 0);
+        return mFloodFill.fill(mPixels, mWidth, mHeight, 0, 0, mMask);
+    }
+}
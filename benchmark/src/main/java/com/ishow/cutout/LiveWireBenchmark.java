@@ -0,0 +1,88 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 磁性套索： 代价金字塔的计算和一段拖动的增量搜索
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiveWireBenchmark {
+    /**
+     * 一次拖动的帧数， 60Hz 下一秒
+     */
+    private static final int FRAMES = 60;
+
+    @Param({"1", "4"})
+    public int megapixels;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private ParallelBands mBands;
+    private EdgeCostPyramid mPyramid;
+    private LiveWire mLiveWire;
+    private float[] mTrack;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        // 闭合轨迹里外亮度不同， 再加上噪声
+        final byte[] mask = BenchmarkData.lassoMask(mWidth, mHeight, 1024);
+        mPixels = BenchmarkData.pixels(mWidth * mHeight, 0);
+        for (int i = 0; i < mPixels.length; i++) {
+            final int gray = ((mask[i] & 0xFF) >> 1) + (mPixels[i] & 0x3F);
+            mPixels[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+        }
+        mBands = threads == 1 ? new ParallelBands(1) : ParallelBands.getDefault();
+        mPyramid = EdgeCostPyramid.build(mPixels, mWidth, mHeight, 4, mBands);
+        mLiveWire = new LiveWire(128);
+        mLiveWire.setCost(mPyramid.getCost(0), mWidth, mHeight);
+        // 沿着闭合轨迹走一小段
+        mTrack = BenchmarkData.lasso(mWidth, mHeight, 2048, 0);
+    }
+
+    @Benchmark
+    public EdgeCostPyramid build() {
+        return EdgeCostPyramid.build(mPixels, mWidth, mHeight, 4, mBands);
+    }
+
+    /**
+     * 一次拖动： 设置锚点， 之后每帧手指前进一点
+     */
+    @Benchmark
+    public int drag() {
+        mLiveWire.setSeed((int) mTrack[0], (int) mTrack[1]);
+        int count = 0;
+        for (int i = 1; i <= FRAMES; i++) {
+            final int x = (int) mTrack[i * 2];
+            final int y = (int) mTrack[i * 2 + 1];
+            if (mLiveWire.contains(x, y)) {
+                count += mLiveWire.findPath(x, y);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 蒙版羽化， 半径对耗时应该没有影响
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskFeatherBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"10", "100"})
+    public float radius;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mMask;
+    private byte[] mPixels;
+    private MaskFeather mFeather;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        mMask = BenchmarkData.lassoMask(mWidth, mHeight, 1024);
+        mPixels = new byte[mMask.length];
+        mFeather = new MaskFeather(threads == 1 ? new ParallelBands(1) : ParallelBands.getDefault());
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        System.arraycopy(mMask, 0, mPixels, 0, mMask.length);
+    }
+
+    @Benchmark
+    public byte[] feather() {
+        mFeather.blur(mPixels, mWidth, mHeight, mWidth, radius);
+        return mPixels;
+    }
+}
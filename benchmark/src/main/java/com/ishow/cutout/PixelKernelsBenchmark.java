@@ -0,0 +1,64 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * DST_IN / DST_OUT 蒙版合成， 按行带分给多个核
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelKernelsBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean out;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private byte[] mMask;
+    private ParallelBands mBands;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        mPixels = BenchmarkData.pixels(mWidth * mHeight, 0);
+        mMask = BenchmarkData.lassoMask(mWidth, mHeight, 1024);
+        mBands = threads == 1 ? new ParallelBands(1) : ParallelBands.getDefault();
+    }
+
+    @Benchmark
+    public int[] applyMask() {
+        mBands.run(mHeight, 64, new ParallelBands.Band() {
+            @Override
+            public void run(int start, int end) {
+                PixelKernels.applyMask(mPixels, start * mWidth, mWidth, mMask, start * mWidth, mWidth,
+                        mWidth, end - start, out);
+            }
+        });
+        return mPixels;
+    }
+}
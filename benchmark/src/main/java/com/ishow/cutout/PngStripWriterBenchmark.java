@@ -0,0 +1,72 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 按条编码原图大小的 PNG
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PngStripWriterBenchmark {
+    private static final int STRIP_HEIGHT = 64;
+
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mStrip;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        // 同一条重复写， 内存只和一条的大小有关
+        mStrip = BenchmarkData.pixels(mWidth * STRIP_HEIGHT, 0);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        PngStripWriter writer = new PngStripWriter(out, mWidth, mHeight);
+        for (int top = 0; top < mHeight; top += STRIP_HEIGHT) {
+            writer.writeRows(mStrip, Math.min(STRIP_HEIGHT, mHeight - top));
+        }
+        writer.finish();
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 闭合抠图路径的扫描线填充
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonRasterizerBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"256", "4096"})
+    public int pointCount;
+
+    @Param({"0", "1"})
+    public int fillType;
+
+    private int mWidth;
+    private int mHeight;
+    private float[] mPoints;
+    private byte[] mMask;
+    private PolygonRasterizer mRasterizer;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        mPoints = BenchmarkData.lasso(mWidth, mHeight, pointCount, 0);
+        mMask = new byte[mWidth * mHeight];
+        mRasterizer = new PolygonRasterizer();
+        mRasterizer.setFillType(fillType);
+    }
+
+    @Benchmark
+    public byte[] fill() {
+        mRasterizer.fill(mPoints, 0, pointCount, mMask, mWidth, mHeight, mWidth);
+        return mMask;
+    }
+}
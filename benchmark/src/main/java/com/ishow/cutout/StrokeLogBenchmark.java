@@ -0,0 +1,100 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 笔画记录的重放、 回退和简化
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeLogBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"16", "256", "4096"})
+    public int strokeCount;
+
+    @Param({"64"})
+    public int pointCount;
+
+    private StrokeLog mLog;
+    private StrokeLog mSource;
+    private float[] mSamples;
+    private StrokeSimplifier mSimplifier;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mLog = BenchmarkData.strokeLog(size[0], size[1], strokeCount, pointCount);
+        mSource = BenchmarkData.strokeLog(size[0], size[1], 1, pointCount);
+        // 原始的触摸点比记录下来的密得多
+        mSamples = BenchmarkData.lasso(size[0], size[1], strokeCount * pointCount, 1);
+        mSimplifier = new StrokeSimplifier(1.5f);
+    }
+
+    /**
+     * 导出和恢复会话时按顺序重放所有笔画
+     */
+    @Benchmark
+    public void replay(final Blackhole blackhole) {
+        mLog.replay(new StrokeLog.Visitor() {
+            @Override
+            public void onStroke(int tool, float width, int alpha, float[] points, int offset, int count) {
+                float sum = 0;
+                for (int i = 0; i < count * 2; i++) {
+                    sum += points[offset + i];
+                }
+                blackhole.consume(sum);
+            }
+        });
+    }
+
+    /**
+     * 回退最后一笔再重新画上
+     */
+    @Benchmark
+    public int undoRedo() {
+        final int count = mLog.getStrokeCount();
+        mLog.truncate(count - 1);
+        mLog.beginStroke(StrokeLog.TOOL_ERASER, 30, 255);
+        mLog.addPoints(mSource, 0);
+        return mLog.getTotalPointCount();
+    }
+
+    /**
+     * 输入所有的触摸点并简化
+     */
+    @Benchmark
+    public int simplify() {
+        final float[] samples = mSamples;
+        int emitted = 0;
+        mSimplifier.begin(samples[0], samples[1]);
+        for (int i = 2; i < samples.length; i += 2) {
+            if (mSimplifier.add(samples[i], samples[i + 1])) {
+                emitted++;
+            }
+        }
+        if (mSimplifier.finish()) {
+            emitted++;
+        }
+        return emitted;
+    }
+}
@@ -0,0 +1,129 @@
+package com.ishow.cutout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by yuhaiyang on 2017/10/18.
+ * 分块回退： 每一笔擦除之前保存被修改的块， 回退的时候按相反的顺序写回去
+ * <p>
+ * 和 TileHistory 的记账一样， 像素用 int[] 代替 Bitmap， 块的数组像 BitmapPool 一样复用
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileGridBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"1", "16", "64"})
+    public int strokeCount;
+
+    @Param({"64"})
+    public int pointCount;
+
+    @Param({"128"})
+    public int tileSize;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private StrokeLog mLog;
+    private TileGrid mGrid;
+
+    private List<SavedTile> mSaved;
+    private int mSavedCount;
+    private TileGrid.Visitor mCapture;
+
+    @Setup
+    public void setup() {
+        final int[] size = BenchmarkData.imageSize(megapixels);
+        mWidth = size[0];
+        mHeight = size[1];
+        mPixels = BenchmarkData.pixels(mWidth * mHeight, 0);
+        // 第一笔是闭合的轨迹， 后面的都是擦除
+        mLog = BenchmarkData.strokeLog(mWidth, mHeight, strokeCount + 1, pointCount);
+        mGrid = new TileGrid(tileSize);
+        mSaved = new ArrayList<>();
+        mCapture = new TileGrid.Visitor() {
+            @Override
+            public void onTile(int x, int y, int width, int height) {
+                if (mSavedCount == mSaved.size()) {
+                    mSaved.add(new SavedTile(tileSize));
+                }
+                mSaved.get(mSavedCount++).read(mPixels, mWidth, x, y, width, height);
+            }
+        };
+    }
+
+    /**
+     * 每一笔都是一次操作， 沿着笔画按线段的包围盒保存块， 最后全部回退
+     */
+    @Benchmark
+    public int captureAndUndo() {
+        mSavedCount = 0;
+        final float[] points = mLog.getPoints();
+        for (int stroke = 1; stroke <= strokeCount; stroke++) {
+            mGrid.reset(mWidth, mHeight);
+            final int half = (int) Math.ceil(mLog.getWidth(stroke) / 2) + 1;
+            final int offset = mLog.getPointOffset(stroke);
+            final int count = mLog.getPointCount(stroke);
+            for (int i = 1; i < count; i++) {
+                final float x0 = points[offset + i * 2 - 2];
+                final float y0 = points[offset + i * 2 - 1];
+                final float x1 = points[offset + i * 2];
+                final float y1 = points[offset + i * 2 + 1];
+                mGrid.capture((int) Math.min(x0, x1) - half, (int) Math.min(y0, y1) - half,
+                        (int) Math.max(x0, x1) + half, (int) Math.max(y0, y1) + half, mCapture);
+            }
+        }
+        for (int i = mSavedCount - 1; i >= 0; i--) {
+            mSaved.get(i).write(mPixels, mWidth);
+        }
+        return mSavedCount;
+    }
+
+    private static final class SavedTile {
+        private final int[] pixels;
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+
+        SavedTile(int size) {
+            pixels = new int[size * size];
+        }
+
+        void read(int[] source, int stride, int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(source, (y + row) * stride + x, pixels, row * width, width);
+            }
+        }
+
+        void write(int[] target, int stride) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(pixels, row * width, target, (y + row) * stride + x, width);
+            }
+        }
+    }
+}